@@ -0,0 +1,117 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// LongKeyCache/UuidKeyCache against the caffeine cache they stand in for, same size and keys.
+// run with -prof gc to see the boxing the primitive caches avoid on every get
+// mvn -Pjmh test-compile exec:exec
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class PrimitiveKeyCacheBenchmark {
+
+    // a power of two so a thread's index can wrap with a mask
+    private static final int KEYS = 1 << 16;
+
+    @Param({"10000", "100000"})
+    int size;
+
+    private LongKeyCache<String> longCache;
+    private Cache<Long, String> caffeineLong;
+    private UuidKeyCache<String> uuidCache;
+    private Cache<UUID, String> caffeineUuid;
+
+    private long[] longKeys;
+    private UUID[] uuidKeys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        longCache = new LongKeyCache<>("bench-long", size, null);
+        caffeineLong = Caffeine.newBuilder().maximumSize(size).build();
+        uuidCache = new UuidKeyCache<>("bench-uuid", size, null);
+        caffeineUuid = Caffeine.newBuilder().maximumSize(size).build();
+
+        // keys drawn from twice the cache size, so about half the gets miss
+        SplittableRandom random = new SplittableRandom(42);
+        longKeys = new long[KEYS];
+        uuidKeys = new UUID[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            // packed chunk coordinates, the usual long key
+            int x = random.nextInt(size) - size / 2;
+            int z = random.nextInt(2);
+            longKeys[i] = ((long) x << 32) | (z & 0xFFFFFFFFL);
+            uuidKeys[i] = new UUID(random.nextInt(size * 2), 42);
+        }
+
+        for (int i = 0; i < size; i++) {
+            longCache.put(longKeys[i], "v");
+            caffeineLong.put(longKeys[i], "v");
+            uuidCache.put(uuidKeys[i], "v");
+            caffeineUuid.put(uuidKeys[i], "v");
+        }
+    }
+
+    // per thread cursor so threads don't walk the keys in lockstep
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index = (int) Thread.currentThread().threadId() * 7919;
+
+        int next() {
+            return index++ & (KEYS - 1);
+        }
+    }
+
+    @Benchmark
+    public String longKeyGet(Cursor cursor) {
+        return longCache.getIfPresent(longKeys[cursor.next()]);
+    }
+
+    @Benchmark
+    public String caffeineLongGet(Cursor cursor) {
+        return caffeineLong.getIfPresent(longKeys[cursor.next()]);
+    }
+
+    @Benchmark
+    public void longKeyPut(Cursor cursor) {
+        longCache.put(longKeys[cursor.next()], "v");
+    }
+
+    @Benchmark
+    public void caffeineLongPut(Cursor cursor) {
+        caffeineLong.put(longKeys[cursor.next()], "v");
+    }
+
+    @Benchmark
+    public String uuidKeyGet(Cursor cursor) {
+        return uuidCache.getIfPresent(uuidKeys[cursor.next()]);
+    }
+
+    @Benchmark
+    public String caffeineUuidGet(Cursor cursor) {
+        return caffeineUuid.getIfPresent(uuidKeys[cursor.next()]);
+    }
+}
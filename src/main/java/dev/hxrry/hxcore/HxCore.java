@@ -3,12 +3,29 @@ package dev.hxrry.hxcore;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import dev.hxrry.hxcore.cache.CacheManager;
+import dev.hxrry.hxcore.cache.InvalidationTransport;
+import dev.hxrry.hxcore.cache.PostgresInvalidationTransport;
 import dev.hxrry.hxcore.config.ConfigManager;
+import dev.hxrry.hxcore.database.AdmissionControl;
 import dev.hxrry.hxcore.database.Database;
 import dev.hxrry.hxcore.database.DatabaseFactory;
+import dev.hxrry.hxcore.database.Migration;
+import dev.hxrry.hxcore.database.MigrationRunner;
+import dev.hxrry.hxcore.database.PoolStats;
+import dev.hxrry.hxcore.database.PostgreSQLDatabase;
+import dev.hxrry.hxcore.database.QueryMetrics;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 public class HxCore {
@@ -17,9 +34,13 @@ public class HxCore {
     private final Logger logger;
 
     // core components
-    private Database database;
+    private volatile Database database;
+    private CompletableFuture<Database> databaseFuture;
     private CacheManager cacheManager;
+    private volatile InvalidationTransport invalidationTransport;
     private final Map<String, ConfigManager> configs;
+    private final List<Function<HxCore, CompletableFuture<?>>> warmups = new CopyOnWriteArrayList<>();
+    private final Executor asyncExecutor;
 
     // settings
     private boolean debug;
@@ -36,7 +57,8 @@ public class HxCore {
     public HxCore(JavaPlugin plugin) {
         this.plugin = plugin;
         this.logger = plugin.getLogger();
-        this.configs = new HashMap<>();
+        this.configs = new ConcurrentHashMap<>();
+        this.asyncExecutor = task -> Thread.ofVirtual().name("HxCore-init-" + plugin.getName()).start(task);
     }
 
     public boolean initialize() {
@@ -64,9 +86,59 @@ public class HxCore {
         }
     }
 
+    // registers work to run once the database is up during initializeAsync, e.g. preloading a cache
+    public HxCore warmup(Function<HxCore, CompletableFuture<?>> task) {
+        warmups.add(task);
+        return this;
+    }
+    
+    // same as initialize but nothing blocks the calling thread: configs load while the database connects
+    // (with backoff), then warmups run in parallel. completes off the main thread with false on failure,
+    // hop back with Scheduler.getMainThreadExecutor() before touching bukkit
+    public CompletableFuture<Boolean> initializeAsync() {
+        if (isFolia()) {
+            logger.severe("We don't support Folia soz!");
+            return CompletableFuture.completedFuture(false);
+        }
+        
+        CompletableFuture<Void> configsLoaded = CompletableFuture.runAsync(() -> {
+            getConfig("config.yml");
+            CompletableFuture.allOf(configs.values().stream()
+                .map(config -> CompletableFuture.runAsync(config::load, asyncExecutor))
+                .toArray(CompletableFuture[]::new)).join();
+            
+            this.debug = getConfig("config.yml").getBoolean("debug", false);
+        }, asyncExecutor);
+        
+        CompletableFuture<Void> warmed = getDatabaseAsync().thenCompose(db -> CompletableFuture.allOf(
+            warmups.stream().map(task -> task.apply(this)).toArray(CompletableFuture[]::new)));
+        
+        return CompletableFuture.allOf(configsLoaded, warmed).handle((v, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                logger.severe("Failed to initialize HxCore: " + cause.getMessage());
+                return false;
+            }
+            
+            logger.info("HxCore initialized successfully for " + plugin.getName());
+            return true;
+        });
+    }
+    
     public void shutdown() {
-        // clear caches
+        // clear caches, repositories write their dirty rows first while the database is still up
         if (cacheManager != null) {
+            cacheManager.getMetrics().stop();
+            cacheManager.closeRepositories();
+            cacheManager.detachInvalidationBus();
+            
+            // ours, the manager only unsubscribes from it
+            InvalidationTransport transport = invalidationTransport;
+            if (transport != null) {
+                transport.close();
+                invalidationTransport = null;
+            }
+            cacheManager.saveSnapshots();
             cacheManager.clearAll();
             
             // print final stats if in debug mode
@@ -75,9 +147,11 @@ public class HxCore {
             }
         }
         
-        // close database
+        // close database, or once it finishes connecting if startup is still going
         if (database != null) {
             database.disconnect();
+        } else if (databaseFuture != null) {
+            databaseFuture.thenAccept(Database::disconnect);
         }
         
         logger.info("HxCore shut down for " + plugin.getName());
@@ -89,6 +163,20 @@ public class HxCore {
     }
     
     public Database getDatabase() {
+        CompletableFuture<Database> pending;
+        synchronized (this) {
+            pending = pendingConnect();
+        }
+        
+        // async connect already under way, wait for that rather than opening a second one
+        if (database == null && pending != null) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Failed to connect to the database :(", e.getCause());
+            }
+        }
+        
         if (database == null) {
             String dbName = plugin.getName().toLowerCase().replace(" ", "_");
             
@@ -103,10 +191,102 @@ public class HxCore {
         return database;
     }
     
+    // connects on a background thread with exponential backoff, the same Database getDatabase() returns
+    public synchronized CompletableFuture<Database> getDatabaseAsync() {
+        if (database != null) {
+            return CompletableFuture.completedFuture(database);
+        }
+        
+        if (pendingConnect() == null) {
+            String dbName = plugin.getName().toLowerCase().replace(" ", "_");
+            
+            databaseFuture = CompletableFuture.supplyAsync(() -> DatabaseFactory.create(plugin, dbName), asyncExecutor)
+                .thenCompose(db -> DatabaseFactory.connectWithRetryAsync(db, 5, 500, 10_000).thenApply(v -> db))
+                .whenComplete((db, error) -> {
+                    if (db != null) {
+                        database = db;
+                    }
+                });
+        }
+        return databaseFuture;
+    }
+    
+    // the connect in progress (or done), a failed one is dropped so the next call tries again. call holding the lock
+    private CompletableFuture<Database> pendingConnect() {
+        if (databaseFuture != null && databaseFuture.isCompletedExceptionally()) {
+            databaseFuture = null;
+        }
+        return databaseFuture;
+    }
+    
+    // applies V<version>__<description>.sql files under db/migrations in the plugin jar
+    public int migrateDatabase() throws IOException, SQLException {
+        List<Migration> migrations = MigrationRunner.loadResources(plugin.getClass(), "db/migrations");
+        return getDatabase().migrate(plugin.getName(), migrations);
+    }
+    
+    // query timings for this plugin's database, null until getDatabase() has been called
+    public QueryMetrics getDatabaseMetrics() {
+        return database != null ? database.getMetrics() : null;
+    }
+    
+    // pool, admission and per query stats to the console
+    public void printDatabaseMetrics() {
+        if (database == null) {
+            logger.info("Database not initialised, no metrics");
+            return;
+        }
+        
+        PoolStats pool = database.getPoolStats();
+        AdmissionControl admission = database.getAdmissionControl();
+        
+        logger.info("===== Database Metrics =====");
+        logger.info(String.format("pool: active=%d, idle=%d, total=%d, pending=%d",
+            pool.active(), pool.idle(), pool.total(), pool.pending()));
+        logger.info(String.format("admission: running=%d, queued=%d, rejected=%d, timed out=%d, caller runs=%d, avg wait=%.2fms, max wait=%.2fms",
+            admission.getRunning(), admission.getQueueDepth(), admission.getRejectedCount(), admission.getTimedOutCount(),
+            admission.getCallerRunsCount(), admission.getAverageWaitMillis(), admission.getMaxWaitMillis()));
+        
+        for (String line : database.getMetrics().report()) {
+            logger.info(line);
+        }
+        
+        logger.info("============================");
+    }
+    
     public CacheManager getCacheManager() {
         if (cacheManager == null) {
-            boolean stats = getConfig("config.yml").getBoolean("cache.stats", false);
-            cacheManager = new CacheManager(logger, stats);
+            cacheManager = new CacheManager(logger, false);
+            
+            // cache.stats turns on the background sampler, recommendations log caches that look mis-sized
+            if (getConfig("config.yml").getBoolean("cache.stats", false)) {
+                cacheManager.getMetrics().start(
+                    Duration.ofSeconds(getConfig("config.yml").getInt("cache.metrics.interval-seconds", 60)),
+                    getConfig("config.yml").getBoolean("cache.metrics.recommend", false));
+            }
+            
+            // shared cap for caches built with a weigher, off by default
+            int budgetMb = getConfig("config.yml").getInt("cache.memory-budget-mb", 0);
+            if (budgetMb > 0) {
+                cacheManager.setMemoryBudget(budgetMb * 1024L * 1024L);
+            }
+            
+            cacheManager.setSnapshotDirectory(plugin.getDataFolder().toPath().resolve("cache"));
+            
+            // peers sharing the postgres database drop entries we change, attached once it's connected
+            if (getConfig("config.yml").getBoolean("cache.invalidation.enabled", false)) {
+                CacheManager manager = cacheManager;
+                String channel = getConfig("config.yml").getString("cache.invalidation.channel", "hxcore_" + plugin.getName());
+                
+                getDatabaseAsync().thenAccept(db -> {
+                    if (db instanceof PostgreSQLDatabase postgres) {
+                        invalidationTransport = new PostgresInvalidationTransport(postgres, channel, logger);
+                        manager.attachInvalidationBus(invalidationTransport);
+                    } else {
+                        logger.warning("cache.invalidation needs PostgreSQL, caches stay local");
+                    }
+                });
+            }
         }
         return cacheManager;
     }
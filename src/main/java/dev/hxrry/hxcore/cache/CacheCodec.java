@@ -0,0 +1,72 @@
+package dev.hxrry.hxcore.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+// turns keys/values into bytes for cache snapshots. write whatever decode reads back, in the same order
+
+public interface CacheCodec<T> {
+
+    void encode(T value, DataOutput out) throws IOException;
+
+    T decode(DataInput in) throws IOException;
+
+    static CacheCodec<String> strings() {
+        return new CacheCodec<>() {
+            @Override
+            public void encode(String value, DataOutput out) throws IOException {
+                out.writeUTF(value);
+            }
+
+            @Override
+            public String decode(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        };
+    }
+
+    static CacheCodec<UUID> uuids() {
+        return new CacheCodec<>() {
+            @Override
+            public void encode(UUID value, DataOutput out) throws IOException {
+                out.writeLong(value.getMostSignificantBits());
+                out.writeLong(value.getLeastSignificantBits());
+            }
+
+            @Override
+            public UUID decode(DataInput in) throws IOException {
+                return new UUID(in.readLong(), in.readLong());
+            }
+        };
+    }
+
+    static CacheCodec<Integer> ints() {
+        return new CacheCodec<>() {
+            @Override
+            public void encode(Integer value, DataOutput out) throws IOException {
+                out.writeInt(value);
+            }
+
+            @Override
+            public Integer decode(DataInput in) throws IOException {
+                return in.readInt();
+            }
+        };
+    }
+
+    static CacheCodec<Long> longs() {
+        return new CacheCodec<>() {
+            @Override
+            public void encode(Long value, DataOutput out) throws IOException {
+                out.writeLong(value);
+            }
+
+            @Override
+            public Long decode(DataInput in) throws IOException {
+                return in.readLong();
+            }
+        };
+    }
+}
@@ -1,65 +1,280 @@
 package dev.hxrry.hxcore.cache;
 
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import com.github.benmanes.caffeine.cache.Weigher;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import dev.hxrry.hxcore.database.Database;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 public class CacheManager {
 
     private final Logger logger;
     private final Map<String, Cache<?, ?>> caches;
-    private final boolean enableStats;
+    private final Map<String, AsyncLoadingCache<?, ?>> asyncCaches; // also in caches via synchronous()
+    private final Map<String, CachedRepository<?, ?>> repositories;
+    private final Set<String> repositoryNames = ConcurrentHashMap.newKeySet(); // claimed before the repository is built
+    private final CacheMetrics metrics;
+    private volatile InvalidationBus invalidationBus;
+    private final Map<String, SnapshotBinding<?, ?>> snapshots = new ConcurrentHashMap<>();
+    private volatile Path snapshotDirectory;
+    private final Map<String, OffHeapTier<?, ?>> offHeapTiers = new ConcurrentHashMap<>();
+    private final Map<String, PrimitiveKeyCache<?>> primitiveCaches = new ConcurrentHashMap<>();
+    private volatile MemoryBudget memoryBudget;
+    
+    private record SnapshotBinding<K, V>(Cache<K, V> cache, CacheSnapshot<K, V> snapshot) {}
     
     public CacheManager(Logger logger, boolean enableStats) {
         this.logger = logger;
         this.caches = new ConcurrentHashMap<>();
-        this.enableStats = enableStats;
+        this.asyncCaches = new ConcurrentHashMap<>();
+        this.repositories = new ConcurrentHashMap<>();
+        this.metrics = new CacheMetrics(this, logger);
+        
+        // stats are always recorded now, this just starts the background sampler with the defaults
+        if (enableStats) {
+            metrics.start(CacheMetrics.DEFAULT_INTERVAL, false);
+        }
     }
 
-    @SuppressWarnings("unchecked")
     public <K, V> Cache<K, V> createCache(String name, Duration expireAfterWrite, Duration expireAfterAccess, Integer maxSize) {
+        CacheBuilder<K, V> spec = new CacheBuilder<>(name);
+        spec.expireAfterWrite = expireAfterWrite;
+        spec.expireAfterAccess = expireAfterAccess;
+        spec.maxSize = maxSize;
+        return create(spec);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <K, V> Cache<K, V> create(CacheBuilder<K, V> spec) {
+        String name = spec.name;
         
         return (Cache<K, V>) caches.computeIfAbsent(name, k -> {
-            Caffeine<Object, Object> builder = Caffeine.newBuilder();
+            if (primitiveCaches.containsKey(name)) {
+                throw new IllegalStateException("Cache '" + name + "' already exists as a primitive key cache");
+            }
             
-            // set expiration
+            Cache<K, V> cache = newBuilder(spec).build();
+            logger.info("Created cache '" + name + "' (" + describeLimit(spec) + ", expireWrite=" + spec.expireAfterWrite
+                + ", expireAccess=" + spec.expireAfterAccess + (spec.offHeap != null ? ", offHeap=" + spec.offHeap.getCapacityBytes() / (1024 * 1024) + "MB" : "") + ")");
+            
+            registerOffHeap(spec);
+            if (spec.snapshot != null) {
+                restoreSnapshot(name, cache, spec.snapshot);
+            }
+            return cache;
+        });
+    }
+    
+    // misses go through the loader's future instead of blocking the caller, refreshAfterWrite reloads
+    // hot entries in the background while the old value keeps being served
+    public <K, V> AsyncLoadingCache<K, V> createAsyncCache(String name, Duration expireAfterWrite, Duration expireAfterAccess,
+                                                           Duration refreshAfterWrite, Integer maxSize,
+                                                           AsyncLoader<K, V> loader, AsyncBulkLoader<K, V> bulkLoader) {
+        CacheBuilder<K, V> spec = new CacheBuilder<>(name);
+        spec.expireAfterWrite = expireAfterWrite;
+        spec.expireAfterAccess = expireAfterAccess;
+        spec.refreshAfterWrite = refreshAfterWrite;
+        spec.maxSize = maxSize;
+        spec.loader = loader;
+        spec.bulkLoader = bulkLoader;
+        return createAsync(spec);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <K, V> AsyncLoadingCache<K, V> createAsync(CacheBuilder<K, V> spec) {
+        String name = spec.name;
+        AsyncLoader<K, V> loader = spec.loader;
+        AsyncBulkLoader<K, V> bulkLoader = spec.bulkLoader;
+        OffHeapTier<K, V> offHeap = spec.offHeap;
+        
+        return (AsyncLoadingCache<K, V>) asyncCaches.computeIfAbsent(name, k -> {
+            if (caches.containsKey(name) || primitiveCaches.containsKey(name)) {
+                throw new IllegalStateException("Cache '" + name + "' already exists as a synchronous cache");
+            }
+            
+            Caffeine<Object, Object> builder = newBuilder(spec);
+            if (spec.refreshAfterWrite != null) {
+                builder.refreshAfterWrite(spec.refreshAfterWrite);
+            }
+            
+            AsyncLoadingCache<K, V> cache = builder.buildAsync(new AsyncCacheLoader<K, V>() {
+                @Override
+                public CompletableFuture<? extends V> asyncLoad(K key, Executor executor) {
+                    if (offHeap == null) {
+                        return loader.load(key);
+                    }
+                    
+                    // a demoted entry comes back up without touching the loader
+                    V demoted = offHeap.take(key);
+                    if (demoted != null) {
+                        return CompletableFuture.completedFuture(demoted);
+                    }
+                    // a copy demoted while the load ran is older than what it loaded, it mustn't come back later
+                    return loader.load(key).thenApply(loaded -> {
+                        offHeap.remove(key);
+                        return loaded;
+                    });
+                }
+                
+                @Override
+                public CompletableFuture<? extends Map<? extends K, ? extends V>> asyncLoadAll(Set<? extends K> keys, Executor executor) throws Exception {
+                    if (bulkLoader == null) {
+                        return AsyncCacheLoader.super.asyncLoadAll(keys, executor); // caffeine falls back to one load per key
+                    }
+                    if (offHeap == null) {
+                        return bulkLoader.loadAll(keys);
+                    }
+                    
+                    Map<K, V> found = new HashMap<>();
+                    Set<K> missing = new HashSet<>();
+                    for (K key : keys) {
+                        V demoted = offHeap.take(key);
+                        if (demoted != null) {
+                            found.put(key, demoted);
+                        } else {
+                            missing.add(key);
+                        }
+                    }
+                    if (missing.isEmpty()) {
+                        return CompletableFuture.completedFuture(found);
+                    }
+                    return bulkLoader.loadAll(missing).thenApply(loaded -> {
+                        found.putAll(loaded);
+                        return found;
+                    });
+                }
+                
+                // refreshes always go to the real source
+                @Override
+                public CompletableFuture<? extends V> asyncReload(K key, V oldValue, Executor executor) {
+                    if (offHeap == null) {
+                        return loader.load(key);
+                    }
+                    return loader.load(key).thenApply(loaded -> {
+                        offHeap.remove(key);
+                        return loaded;
+                    });
+                }
+            });
+            
+            caches.put(name, cache.synchronous());
+            registerOffHeap(spec);
+            if (spec.snapshot != null) {
+                restoreSnapshot(name, cache.synchronous(), spec.snapshot);
+            }
+            logger.info("Created async cache '" + name + "' (" + describeLimit(spec) + ", expireWrite=" + spec.expireAfterWrite
+                + ", refresh=" + spec.refreshAfterWrite + ", bulk=" + (bulkLoader != null) + ")");
+            
+            return cache;
+        });
+    }
+    
+    // only once the cache exists, a build that throws mustn't leave a tier behind for get/put to find
+    private void registerOffHeap(CacheBuilder<?, ?> spec) {
+        if (spec.offHeap != null) {
+            offHeapTiers.put(spec.name, spec.offHeap);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Caffeine<Object, Object> newBuilder(CacheBuilder<?, ?> spec) {
+        String name = spec.name;
+        Duration expireAfterWrite = spec.expireAfterWrite;
+        Duration expireAfterAccess = spec.expireAfterAccess;
+        RemovalListener<Object, Object> onRemoval = (RemovalListener<Object, Object>) spec.onRemoval;
+        OffHeapTier<Object, Object> offHeap = (OffHeapTier<Object, Object>) spec.offHeap;
+        
+        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        
+        // set expiration. snapshot caches get the same ttl as a per-entry policy so a restored entry
+        // can be given back just what it had left. off-heap caches always get one, it's the hook that sees
+        // every write (the raw Cache's put included) and drops the demoted copy so it can't come back later
+        if ((spec.snapshot != null && (expireAfterWrite != null || expireAfterAccess != null)) || offHeap != null) {
+            if (expireAfterWrite != null && expireAfterAccess != null) {
+                throw new IllegalArgumentException("Cache '" + name + "' has a snapshot or off-heap tier, so it can use expireAfterWrite or expireAfterAccess, not both");
+            }
+            Duration ttl = expireAfterWrite != null ? expireAfterWrite : expireAfterAccess;
+            builder.expireAfter(new TtlExpiry(ttl, expireAfterAccess != null, offHeap));
+        } else {
             if (expireAfterWrite != null) {
                 builder.expireAfterWrite(expireAfterWrite);
             }
             if (expireAfterAccess != null) {
                 builder.expireAfterAccess(expireAfterAccess);
             }
-            
-            // set size limit
-            if (maxSize != null && maxSize > 0) {
-                builder.maximumSize(maxSize);
+        }
+        
+        // set size limit, by entry count or by weight. a weighted cache under a memory budget starts with
+        // a guess and gets its real share from the rebalance right after it's built
+        if (spec.weigher != null) {
+            if (spec.maxSize != null) {
+                throw new IllegalArgumentException("Cache '" + name + "' can use maximumSize or a weigher, not both");
             }
             
-            // enable statistics
-            if (enableStats) {
-                builder.recordStats();
+            MemoryBudget budget = memoryBudget;
+            long maxWeight;
+            if (budget != null) {
+                maxWeight = budget.initialShare(weightedCacheCount());
+            } else if (spec.maxWeight != null) {
+                maxWeight = spec.maxWeight;
+            } else {
+                throw new IllegalArgumentException("Cache '" + name + "' has a weigher but no maximumWeight or memory budget");
             }
             
-            // add removal listener for debugging
-            builder.removalListener((key, value, cause) -> {
-                if (cause != RemovalCause.REPLACED) {
-                    logger.fine("Cache entry removed from " + name + ": " + key + " (reason: " + cause + ")");
+            builder.maximumWeight(maxWeight);
+            builder.weigher((Weigher<Object, Object>) spec.weigher);
+        } else if (spec.maxSize != null && spec.maxSize > 0) {
+            builder.maximumSize(spec.maxSize);
+        }
+        
+        // always on, the counters are cheap and CacheMetrics samples them
+        CacheMetrics.Recorder recorder = metrics.recorder(name);
+        builder.recordStats(() -> recorder);
+        
+        // pushed out for size, not expiry, so it's still good - move it down a tier
+        if (offHeap != null) {
+            builder.evictionListener((key, value, cause) -> {
+                if (cause == RemovalCause.SIZE && key != null && value != null) {
+                    offHeap.put(key, value);
                 }
             });
-            
-            Cache<Object, Object> cache = builder.build();
-            logger.info("Created cache '" + name + "' (maxSize=" + maxSize + ", expireWrite=" + expireAfterWrite + ", expireAccess=" + expireAfterAccess + ")");
-            
-            return cache;
+        }
+        
+        // add removal listener for debugging
+        builder.removalListener((key, value, cause) -> {
+            if (cause != RemovalCause.REPLACED) {
+                logger.fine("Cache entry removed from " + name + ": " + key + " (reason: " + cause + ")");
+            }
+            if (onRemoval != null) {
+                onRemoval.onRemoval(key, value, cause);
+            }
         });
+        
+        return builder;
     }
 
     public <K, V> Cache<K, V> createSimpleCache(String name, int ttlMinutes, int maxSize) {
@@ -78,37 +293,425 @@ public class CacheManager {
             return loader.apply(key);
         }
         
-        return cache.get(key, loader);
+        OffHeapTier<K, V> offHeap = getOffHeapTier(cacheName);
+        if (offHeap == null) {
+            return cache.get(key, loader);
+        }
+        
+        // a demoted entry comes back up without touching the loader
+        return cache.get(key, k -> {
+            V demoted = offHeap.take(k);
+            if (demoted != null) {
+                return demoted;
+            }
+            
+            // a copy demoted while the loader ran is older than what it loaded, it mustn't come back later
+            V loaded = loader.apply(k);
+            offHeap.remove(k);
+            return loaded;
+        });
+    }
+    
+    // no loading, but checks (and promotes from) the off-heap tier
+    public <K, V> V getIfPresent(String cacheName, K key) {
+        Cache<K, V> cache = getCache(cacheName);
+        if (cache == null) {
+            return null;
+        }
+        
+        V value = cache.getIfPresent(key);
+        OffHeapTier<K, V> offHeap = getOffHeapTier(cacheName);
+        if (value == null && offHeap != null) {
+            V demoted = offHeap.take(key);
+            if (demoted != null) {
+                // anything put or loaded since the miss is newer, keep that over the demoted copy
+                V current = cache.asMap().putIfAbsent(key, demoted);
+                value = current != null ? current : demoted;
+            }
+        }
+        return value;
+    }
+    
+    // the same as the Cache's own put, any demoted copy of the key is dropped on either path (see TtlExpiry)
+    public <K, V> void put(String cacheName, K key, V value) {
+        Cache<K, V> cache = getCache(cacheName);
+        if (cache == null) {
+            logger.warning("Cache '" + cacheName + "' not found, nothing cached");
+            return;
+        }
+        
+        cache.put(key, value);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <K, V> OffHeapTier<K, V> getOffHeapTier(String cacheName) {
+        return (OffHeapTier<K, V>) offHeapTiers.get(cacheName);
     }
 
+    @SuppressWarnings("unchecked")
+    public <K, V> AsyncLoadingCache<K, V> getAsyncCache(String name) {
+        return (AsyncLoadingCache<K, V>) asyncCaches.get(name);
+    }
+    
+    // never blocks, a miss completes once the loader's query does
+    public <K, V> CompletableFuture<V> getAsync(String cacheName, K key) {
+        AsyncLoadingCache<K, V> cache = getAsyncCache(cacheName);
+        if (cache == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Async cache '" + cacheName + "' not found"));
+        }
+        return cache.get(key);
+    }
+    
+    // hits come straight back, all the misses go to the bulk loader together. keys that don't exist are left out
+    public <K, V> CompletableFuture<Map<K, V>> getAllAsync(String cacheName, Iterable<? extends K> keys) {
+        AsyncLoadingCache<K, V> cache = getAsyncCache(cacheName);
+        if (cache == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Async cache '" + cacheName + "' not found"));
+        }
+        return cache.getAll(keys);
+    }
+    
+    // where snapshot caches are saved on shutdown and restored from, HxCore points it at <data folder>/cache
+    public void setSnapshotDirectory(Path directory) {
+        this.snapshotDirectory = directory;
+    }
+    
+    // writes every snapshot cache to disk, blocks. call on shutdown before clearAll
+    public void saveSnapshots() {
+        Path directory = snapshotDirectory;
+        if (directory == null || snapshots.isEmpty()) {
+            return;
+        }
+        
+        for (Map.Entry<String, SnapshotBinding<?, ?>> entry : snapshots.entrySet()) {
+            try {
+                Files.createDirectories(directory);
+                int saved = save(entry.getValue(), snapshotFile(directory, entry.getKey()));
+                logger.info("Saved " + saved + " entries of cache '" + entry.getKey() + "' to snapshot");
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Failed to snapshot cache '" + entry.getKey() + "': " + e.getMessage());
+            }
+        }
+    }
+    
+    private static <K, V> int save(SnapshotBinding<K, V> binding, Path file) throws IOException {
+        return binding.snapshot().save(binding.cache(), file);
+    }
+    
+    // reads the last snapshot back on a virtual thread, the cache is usable (and loading) meanwhile
+    private <K, V> void restoreSnapshot(String name, Cache<K, V> cache, CacheSnapshot<K, V> snapshot) {
+        snapshots.put(name, new SnapshotBinding<>(cache, snapshot));
+        
+        Path directory = snapshotDirectory;
+        if (directory == null) {
+            return;
+        }
+        
+        Thread.ofVirtual().name("HxCore-CacheRestore-" + name).start(() -> {
+            try {
+                int loaded = snapshot.load(cache, snapshotFile(directory, name));
+                if (loaded > 0) {
+                    logger.info("Restored " + loaded + " entries of cache '" + name + "' from snapshot");
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Failed to restore cache '" + name + "' from snapshot, starting cold: " + e.getMessage());
+            }
+        });
+    }
+    
+    private static Path snapshotFile(Path directory, String name) {
+        return directory.resolve(name.replaceAll("[^A-Za-z0-9_.-]", "_") + ".snapshot");
+    }
+    
+    // for hot lookups keyed by packed coordinates or ids, no boxing on get. these don't go through
+    // caffeine so there's no access expiry, loaders, snapshots or off-heap tier
+    @SuppressWarnings("unchecked")
+    public <V> LongKeyCache<V> createLongCache(String name, int maxSize, Duration expireAfterWrite) {
+        return (LongKeyCache<V>) createPrimitive(name, () -> new LongKeyCache<>(name, maxSize, expireAfterWrite), maxSize, expireAfterWrite);
+    }
+    
+    // for per-player lookups, the UUID is held as two longs so a get never hashes a UUID object
+    @SuppressWarnings("unchecked")
+    public <V> UuidKeyCache<V> createUuidCache(String name, int maxSize, Duration expireAfterWrite) {
+        return (UuidKeyCache<V>) createPrimitive(name, () -> new UuidKeyCache<>(name, maxSize, expireAfterWrite), maxSize, expireAfterWrite);
+    }
+    
+    private PrimitiveKeyCache<?> createPrimitive(String name, Supplier<PrimitiveKeyCache<?>> factory, int maxSize, Duration expireAfterWrite) {
+        return primitiveCaches.computeIfAbsent(name, k -> {
+            if (caches.containsKey(name)) {
+                throw new IllegalStateException("Cache '" + name + "' already exists as a regular cache");
+            }
+            
+            PrimitiveKeyCache<?> cache = factory.get();
+            logger.info("Created primitive key cache '" + name + "' (" + cache.getClass().getSimpleName()
+                + ", maxSize=" + maxSize + ", expireWrite=" + expireAfterWrite + ")");
+            return cache;
+        });
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <V> LongKeyCache<V> getLongCache(String name) {
+        return primitiveCaches.get(name) instanceof LongKeyCache<?> cache ? (LongKeyCache<V>) cache : null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <V> UuidKeyCache<V> getUuidCache(String name) {
+        return primitiveCaches.get(name) instanceof UuidKeyCache<?> cache ? (UuidKeyCache<V>) cache : null;
+    }
+    
+    // read-through/write-through (or write-behind) cache over one table, see CachedRepository
+    public <K, V> CachedRepository.Builder<K, V> repository(String name, Database database) {
+        return new CachedRepository.Builder<>(this, name, database);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <K, V> CachedRepository<K, V> getRepository(String name) {
+        return (CachedRepository<K, V>) repositories.get(name);
+    }
+    
+    // called by the builder before anything is started, so a second repository under the same name (or
+    // over an existing cache) fails instead of quietly sharing the first one's cache and leaking a timer
+    void claimRepository(String name) {
+        if (getCache(name) != null || primitiveCaches.containsKey(name) || !repositoryNames.add(name)) {
+            throw new IllegalStateException("Cache or repository '" + name + "' already exists");
+        }
+    }
+    
+    // the constructor failed after claimRepository
+    void releaseRepository(String name) {
+        repositoryNames.remove(name);
+    }
+    
+    <K, V> CachedRepository<K, V> register(CachedRepository<K, V> repository) {
+        repositories.put(repository.getName(), repository);
+        return repository;
+    }
+    
+    // writes out every repository's dirty rows, blocks. call before the database goes away
+    public void closeRepositories() {
+        for (CachedRepository<?, ?> repository : repositories.values()) {
+            repository.close();
+        }
+        repositories.clear();
+        repositoryNames.clear();
+    }
+    
+    Logger getLogger() {
+        return logger;
+    }
+    
+    // per interval hit rate, evictions, load times and sizing advice, see CacheMetrics.start
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+    
+    // caps the combined maximum weight of every cache built with a weigher, re-split each metrics
+    // interval by hit rate (see MemoryBudget). starts the metrics sampler if it isn't running.
+    // 0 turns it off and leaves each cache at its current maximum
+    public void setMemoryBudget(long totalBytes) {
+        if (totalBytes <= 0) {
+            memoryBudget = null;
+            logger.info("Cache memory budget disabled");
+            return;
+        }
+        
+        memoryBudget = new MemoryBudget(totalBytes, logger);
+        if (!metrics.isRunning()) {
+            metrics.start(CacheMetrics.DEFAULT_INTERVAL, metrics.isRecommending());
+        }
+        rebalanceMemoryBudget();
+        
+        logger.info("Cache memory budget " + totalBytes / (1024 * 1024) + "MB across " + weightedCacheCount() + " weighted caches");
+    }
+    
+    public long getMemoryBudget() {
+        MemoryBudget budget = memoryBudget;
+        return budget != null ? budget.getTotalBytes() : 0;
+    }
+    
+    // combined weight of every weighted cache right now
+    public long getWeightedSize() {
+        long total = 0;
+        for (Cache<?, ?> cache : caches.values()) {
+            total += cache.policy().eviction()
+                .filter(eviction -> eviction.isWeighted())
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+        }
+        return total;
+    }
+    
+    // the metrics sampler calls this after every interval, and builders after adding a weighted cache
+    void rebalanceMemoryBudget() {
+        MemoryBudget budget = memoryBudget;
+        if (budget != null) {
+            budget.rebalance(caches, metrics.getLatest());
+        }
+    }
+    
+    private int weightedCacheCount() {
+        int count = 0;
+        for (Cache<?, ?> cache : caches.values()) {
+            if (cache.policy().eviction().map(eviction -> eviction.isWeighted()).orElse(false)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private static String describeLimit(CacheBuilder<?, ?> spec) {
+        if (spec.weigher == null) {
+            return "maxSize=" + spec.maxSize;
+        }
+        return spec.maxWeight != null ? "maxWeight=" + spec.maxWeight : "maxWeight=budgeted";
+    }
+    
+    // for the metrics sampler, includes the synchronous view of every async cache
+    Map<String, Cache<?, ?>> allCaches() {
+        return caches;
+    }
+    
+    Collection<PrimitiveKeyCache<?>> allPrimitiveCaches() {
+        return primitiveCaches.values();
+    }
+    
+    // also tells peers on the invalidation bus, if one is attached
     public <K> void invalidate(String cacheName, K key) {
-        Cache<K, ?> cache = getCache(cacheName);
-        if (cache != null) {
-            cache.invalidate(key);
-            logger.fine("Invalidated " + key + " from cache " + cacheName);
+        invalidateLocal(cacheName, List.of(key));
+        
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(cacheName, List.of(key));
         }
     }
 
+    // also tells peers on the invalidation bus, if one is attached
     public void clearCache(String cacheName) {
+        clearLocal(cacheName);
+        
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publishClear(cacheName);
+        }
+    }
+    
+    void invalidateLocal(String cacheName, List<?> keys) {
+        PrimitiveKeyCache<?> primitive = primitiveCaches.get(cacheName);
+        if (primitive != null) {
+            invalidatePrimitive(primitive, keys);
+            return;
+        }
+        
+        Cache<Object, ?> cache = getCache(cacheName);
+        if (cache == null) {
+            return;
+        }
+        
+        OffHeapTier<Object, ?> offHeap = getOffHeapTier(cacheName);
+        
+        for (Object key : keys) {
+            if (key instanceof InvalidationBus.ToStringKey(String value)) {
+                // key type we couldn't rebuild from the message, match on its string form
+                cache.asMap().keySet().removeIf(k -> k.toString().equals(value));
+                if (offHeap != null) {
+                    offHeap.removeIf(k -> k.toString().equals(value));
+                }
+            } else {
+                cache.invalidate(key);
+                if (offHeap != null) {
+                    offHeap.remove(key);
+                }
+            }
+            logger.fine("Invalidated " + key + " from cache " + cacheName);
+        }
+    }
+    
+    // keys arrive boxed, from invalidate() or off the bus
+    private void invalidatePrimitive(PrimitiveKeyCache<?> primitive, List<?> keys) {
+        for (Object key : keys) {
+            if (primitive instanceof LongKeyCache<?> longCache) {
+                if (key instanceof Long || key instanceof Integer) {
+                    longCache.invalidate(((Number) key).longValue());
+                } else if (key instanceof InvalidationBus.ToStringKey(String value)) {
+                    longCache.invalidateIf(k -> Long.toString(k).equals(value));
+                }
+            } else if (primitive instanceof UuidKeyCache<?> uuidCache && key instanceof UUID uuid) {
+                uuidCache.invalidate(uuid);
+            } else {
+                logger.fine("Can't invalidate " + key + " from primitive key cache " + primitive.getName());
+                continue;
+            }
+            logger.fine("Invalidated " + key + " from cache " + primitive.getName());
+        }
+    }
+    
+    void clearLocal(String cacheName) {
+        PrimitiveKeyCache<?> primitive = primitiveCaches.get(cacheName);
+        if (primitive != null) {
+            long size = primitive.estimatedSize();
+            primitive.clear();
+            logger.info("Cleared cache '" + cacheName + "' (" + size + " entries)");
+            return;
+        }
+        
         Cache<?, ?> cache = getCache(cacheName);
         if (cache != null) {
             long size = cache.estimatedSize();
             cache.invalidateAll();
+            
+            OffHeapTier<?, ?> offHeap = getOffHeapTier(cacheName);
+            if (offHeap != null) {
+                size += offHeap.size();
+                offHeap.clear();
+            }
             logger.info("Cleared cache '" + cacheName + "' (" + size + " entries)");
         }
     }
+    
+    void clearAllLocal() {
+        for (Cache<?, ?> cache : caches.values()) {
+            cache.invalidateAll();
+        }
+        // also frees the native memory
+        offHeapTiers.values().forEach(OffHeapTier::clear);
+        primitiveCaches.values().forEach(PrimitiveKeyCache::clear);
+    }
+    
+    // lets caches on other servers drop entries this one changed, see PostgresInvalidationTransport.
+    // only invalidate and clearCache publish, clearAll stays local since it runs on shutdown.
+    // the transport stays the caller's, detaching just unsubscribes so it can be shared and closed elsewhere
+    public void attachInvalidationBus(InvalidationTransport transport) {
+        detachInvalidationBus();
+        invalidationBus = new InvalidationBus(this, transport, logger);
+        logger.info("Cache invalidation bus attached (" + transport.getClass().getSimpleName() + ")");
+    }
+    
+    public void detachInvalidationBus() {
+        InvalidationBus bus = invalidationBus;
+        invalidationBus = null;
+        if (bus != null) {
+            bus.close();
+        }
+    }
+    
+    // for repositories once their writes land
+    void publishInvalidation(String cacheName, Collection<?> keys) {
+        InvalidationBus bus = invalidationBus;
+        if (bus != null && !keys.isEmpty()) {
+            bus.publish(cacheName, keys);
+        }
+    }
 
     public void clearAll() {
-        for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
-            entry.getValue().invalidateAll();
-        }
-        logger.info("Cleared all " + caches.size() + " caches");
+        clearAllLocal();
+        logger.info("Cleared all " + (caches.size() + primitiveCaches.size()) + " caches");
     }
     
-    // for debuggin
+    // running totals since the cache was created, see getMetrics for per interval numbers
     public CacheStats getStats(String cacheName) {
-        if (!enableStats) {
-            return null;
+        PrimitiveKeyCache<?> primitive = primitiveCaches.get(cacheName);
+        if (primitive != null) {
+            return primitive.stats();
         }
         
         Cache<?, ?> cache = getCache(cacheName);
@@ -117,29 +720,65 @@ public class CacheManager {
     
     // for debuggin
     public void printStats() {
-        if (!enableStats) {
-            logger.info("Cache statistics are disabled");
-            return;
-        }
-        
         logger.info("===== Cache Statistics =====");
         
         for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
             String name = entry.getKey();
             Cache<?, ?> cache = entry.getValue();
             CacheStats stats = cache.stats();
+            CacheMetrics.Recorder recorder = metrics.getRecorder(name);
             
             logger.info(String.format(
                 "%s: size=%d, hits=%d, misses=%d, hit rate=%.2f%%, " +
-                "loads=%d, avg load time=%.2fms",
+                "loads=%d, avg load time=%.2fms, evicted size=%d expired=%d",
                 name,
                 cache.estimatedSize(),
                 stats.hitCount(),
                 stats.missCount(),
                 stats.hitRate() * 100,
                 stats.loadCount(),
-                stats.averageLoadPenalty() / 1_000_000.0 // convert nanos to millis
+                stats.averageLoadPenalty() / 1_000_000.0, // convert nanos to millis
+                recorder != null ? recorder.getEvictions(RemovalCause.SIZE) : 0,
+                recorder != null ? recorder.getEvictions(RemovalCause.EXPIRED) : 0
             ));
+            
+            OffHeapTier<?, ?> offHeap = offHeapTiers.get(name);
+            if (offHeap != null) {
+                logger.info(String.format(
+                    "%s (off-heap): size=%d, used=%.1fMB/%.1fMB, promoted=%d, misses=%d, rejected=%d",
+                    name,
+                    offHeap.size(),
+                    offHeap.getUsedBytes() / (1024.0 * 1024.0),
+                    offHeap.getCapacityBytes() / (1024.0 * 1024.0),
+                    offHeap.getHitCount(),
+                    offHeap.getMissCount(),
+                    offHeap.getRejectedCount()
+                ));
+            }
+        }
+        
+        for (PrimitiveKeyCache<?> cache : primitiveCaches.values()) {
+            CacheStats stats = cache.stats();
+            
+            logger.info(String.format(
+                "%s: size=%d, hits=%d, misses=%d, hit rate=%.2f%%, evictions=%d",
+                cache.getName(),
+                cache.estimatedSize(),
+                stats.hitCount(),
+                stats.missCount(),
+                stats.hitRate() * 100,
+                stats.evictionCount()
+            ));
+        }
+        
+        MemoryBudget budget = memoryBudget;
+        if (budget != null) {
+            logger.info(String.format("memory budget: %.1fMB/%.1fMB across %d weighted caches",
+                getWeightedSize() / (1024.0 * 1024.0), budget.getTotalBytes() / (1024.0 * 1024.0), weightedCacheCount()));
+        }
+        
+        for (CacheMetrics.Recommendation recommendation : metrics.getRecommendations()) {
+            logger.info("! " + recommendation.cache() + ": " + recommendation.advice());
         }
         
         logger.info("============================");
@@ -151,6 +790,16 @@ public class CacheManager {
         private Duration expireAfterWrite;
         private Duration expireAfterAccess;
         private Integer maxSize;
+        private Weigher<? super K, ? super V> weigher;
+        private Long maxWeight;
+        private Duration refreshAfterWrite;
+        private AsyncLoader<K, V> loader;
+        private AsyncBulkLoader<K, V> bulkLoader;
+        private CacheSnapshot<K, V> snapshot;
+        private CacheCodec<V> offHeapCodec;
+        private long offHeapCapacity;
+        private OffHeapTier<K, V> offHeap;
+        private RemovalListener<K, V> onRemoval;
         
         private CacheBuilder(String name) {
             this.name = name;
@@ -171,9 +820,139 @@ public class CacheManager {
             return this;
         }
         
+        // bounds the cache by total weight instead of entry count, e.g. (id, data) -> data.sizeInBytes().
+        // under a memory budget maximumWeight is optional and gets overridden by the cache's share
+        public CacheBuilder<K, V> weigher(Weigher<? super K, ? super V> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+        
+        public CacheBuilder<K, V> maximumWeight(long weight) {
+            this.maxWeight = weight;
+            return this;
+        }
+        
+        // only for async caches, entries older than this reload in the background on their next read
+        public CacheBuilder<K, V> refreshAfterWrite(long duration, TimeUnit unit) {
+            this.refreshAfterWrite = Duration.of(duration, unit.toChronoUnit());
+            return this;
+        }
+        
+        // e.g. key -> database.queryAsync(...), see QueryLoader
+        public CacheBuilder<K, V> asyncLoader(AsyncLoader<K, V> loader) {
+            this.loader = loader;
+            return this;
+        }
+        
+        // turns the misses of a getAllAsync into one lookup, without it each key loads on its own
+        public CacheBuilder<K, V> bulkLoader(AsyncBulkLoader<K, V> bulkLoader) {
+            this.bulkLoader = bulkLoader;
+            return this;
+        }
+        
+        // single + bulk loading from one table
+        public CacheBuilder<K, V> queryLoader(QueryLoader<K, V> queryLoader) {
+            this.loader = queryLoader;
+            this.bulkLoader = queryLoader;
+            return this;
+        }
+        
+        // saved on shutdown and restored in the background on the next start, each entry keeping the ttl
+        // it had left. only for data that's fine to be as stale as the ttl allows across a restart
+        public CacheBuilder<K, V> snapshot(CacheCodec<K> keyCodec, CacheCodec<V> valueCodec) {
+            this.snapshot = new CacheSnapshot<>(keyCodec, valueCodec);
+            return this;
+        }
+        
+        // entries evicted for size get encoded into native memory (up to capacityBytes) instead of dropped,
+        // and move back on heap when read. for big values that would otherwise bloat old gen. capacity
+        // has to be at least 64KB (one page). every write drops a demoted copy of its key, the raw Cache's put included,
+        // which takes a per-entry expiry so the cache can have expireAfterWrite or expireAfterAccess but not both
+        public CacheBuilder<K, V> offHeap(CacheCodec<V> valueCodec, long capacityBytes) {
+            this.offHeapCodec = valueCodec;
+            this.offHeapCapacity = capacityBytes;
+            return this;
+        }
+        
+        CacheBuilder<K, V> onRemoval(RemovalListener<K, V> listener) {
+            this.onRemoval = listener;
+            return this;
+        }
+        
         public Cache<K, V> build() {
-            return createCache(name, expireAfterWrite, expireAfterAccess, maxSize);
+            if (loader != null || refreshAfterWrite != null) {
+                throw new IllegalStateException("Cache '" + name + "' has a loader or refresh set, use buildAsync()");
+            }
+            prepareOffHeap();
+            Cache<K, V> cache = create(this);
+            if (weigher != null) {
+                rebalanceMemoryBudget();
+            }
+            return cache;
         }
+        
+        public AsyncLoadingCache<K, V> buildAsync() {
+            if (loader == null) {
+                throw new IllegalStateException("Async cache '" + name + "' needs an asyncLoader");
+            }
+            prepareOffHeap();
+            AsyncLoadingCache<K, V> cache = createAsync(this);
+            if (weigher != null) {
+                rebalanceMemoryBudget();
+            }
+            return cache;
+        }
+        
+        // the tier is registered by create/createAsync once the cache is actually built, an existing
+        // cache of this name keeps its own tier
+        private void prepareOffHeap() {
+            if (offHeapCodec != null) {
+                Duration ttl = expireAfterWrite != null ? expireAfterWrite : expireAfterAccess;
+                offHeap = new OffHeapTier<>(name, offHeapCodec, offHeapCapacity, ttl, logger);
+            }
+        }
+    }
+    
+    // expireAfterWrite/expireAfterAccess as a variable policy, so entries can be put with their own ttl.
+    // caffeine calls create/update for every write however it's made, which is where a demoted copy of
+    // the key gets dropped - it's older than whatever was just written. a null ttl never expires
+    private record TtlExpiry(Duration ttl, boolean resetOnRead, OffHeapTier<Object, Object> offHeap) implements Expiry<Object, Object> {
+        @Override
+        public long expireAfterCreate(Object key, Object value, long currentTime) {
+            dropDemoted(key);
+            return nanos();
+        }
+        
+        @Override
+        public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+            dropDemoted(key);
+            return nanos();
+        }
+        
+        @Override
+        public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+            return resetOnRead ? nanos() : currentDuration;
+        }
+        
+        private void dropDemoted(Object key) {
+            if (offHeap != null) {
+                offHeap.remove(key);
+            }
+        }
+        
+        private long nanos() {
+            return ttl != null ? ttl.toNanos() : Long.MAX_VALUE;
+        }
+    }
+    
+    @FunctionalInterface
+    public interface AsyncLoader<K, V> {
+        CompletableFuture<V> load(K key);
+    }
+    
+    @FunctionalInterface
+    public interface AsyncBulkLoader<K, V> {
+        CompletableFuture<Map<K, V>> loadAll(Set<? extends K> keys);
     }
 
     //starts new cache build
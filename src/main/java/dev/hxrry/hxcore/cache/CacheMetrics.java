@@ -0,0 +1,366 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import dev.hxrry.hxcore.utils.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// continuous per cache metrics for a CacheManager. every caffeine cache it builds records into a
+// Recorder (hits, misses, load times, evictions by cause) whether or not anything reads them, and a
+// background sampler turns the running totals into per interval numbers: hit rate, evictions by
+// cause, load penalty percentiles, size and weight. with recommendations on, each interval is also
+// checked for signs the maxSize or ttl picked for a cache is off and anything new gets logged
+
+public class CacheMetrics {
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(1);
+
+    private static final RemovalCause[] CAUSES = RemovalCause.values();
+    // an interval with fewer requests than this says nothing about the cache
+    private static final long MIN_REQUESTS = 100;
+    // intervals a cache has to stay small before it's called oversized
+    private static final int OVERSIZE_INTERVALS = 5;
+
+    private final CacheManager manager;
+    private final Logger logger;
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private volatile Map<String, Sample> latest = Map.of();
+    private volatile List<Recommendation> recommendations = List.of();
+    private volatile boolean recommend;
+    private ScheduledExecutorService sampler;
+
+    CacheMetrics(CacheManager manager, Logger logger) {
+        this.manager = manager;
+        this.logger = logger;
+    }
+
+    // one interval of one cache. maximum is 0 when unbounded, and is a weight rather than an entry count when weighted
+    public record Sample(String name, long size, long weight, long maximum, boolean weighted, long requests,
+                         double hitRate, Map<RemovalCause, Long> evictions, long loads,
+                         double loadP50Millis, double loadP99Millis, double loadMaxMillis) {
+
+        public long evictions(RemovalCause cause) {
+            return evictions.getOrDefault(cause, 0L);
+        }
+    }
+
+    public enum Issue {
+        TOO_SMALL,
+        TTL_TOO_SHORT,
+        OVERSIZED,
+        LOW_REUSE
+    }
+
+    public record Recommendation(String cache, Issue issue, String advice) {}
+
+    // caffeine's stats hook, same counters as its own plus a histogram of load times and evictions split by cause
+    public static final class Recorder implements StatsCounter {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder loadSuccesses = new LongAdder();
+        private final LongAdder loadFailures = new LongAdder();
+        private final LongAdder loadNanos = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder evictionWeight = new LongAdder();
+        private final LongAdder[] evictionsByCause = new LongAdder[CAUSES.length];
+        private final LatencyHistogram loadPenalty = new LatencyHistogram();
+
+        private Recorder() {
+            for (int i = 0; i < evictionsByCause.length; i++) {
+                evictionsByCause[i] = new LongAdder();
+            }
+        }
+
+        @Override
+        public void recordHits(int count) {
+            hits.add(count);
+        }
+
+        @Override
+        public void recordMisses(int count) {
+            misses.add(count);
+        }
+
+        @Override
+        public void recordLoadSuccess(long loadTime) {
+            loadSuccesses.increment();
+            loadNanos.add(loadTime);
+            loadPenalty.recordNanos(loadTime);
+        }
+
+        @Override
+        public void recordLoadFailure(long loadTime) {
+            loadFailures.increment();
+            loadNanos.add(loadTime);
+            loadPenalty.recordNanos(loadTime);
+        }
+
+        @Override
+        public void recordEviction(int weight, RemovalCause cause) {
+            evictions.increment();
+            evictionWeight.add(weight);
+            evictionsByCause[cause.ordinal()].increment();
+        }
+
+        @Override
+        public CacheStats snapshot() {
+            return CacheStats.of(hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(),
+                loadNanos.sum(), evictions.sum(), evictionWeight.sum());
+        }
+
+        public long getEvictions(RemovalCause cause) {
+            return evictionsByCause[cause.ordinal()].sum();
+        }
+
+        // load times since the last sample. drained in place, swapping in a fresh histogram would lose
+        // whatever a load thread still holding the old one recorded after the swap
+        private LatencyHistogram drainLoadPenalty() {
+            return loadPenalty.drain();
+        }
+    }
+
+    // what the sampler remembers about a cache between intervals
+    private static final class Window {
+        private CacheStats stats = CacheStats.empty();
+        private final long[] evictions = new long[CAUSES.length];
+        private int intervals;
+        private long peakWeight;
+        private Issue issue;
+    }
+
+    Recorder recorder(String cacheName) {
+        return recorders.computeIfAbsent(cacheName, name -> new Recorder());
+    }
+
+    // restarts the sampler if it's already running
+    public synchronized void start(Duration interval, boolean recommend) {
+        stop();
+        this.recommend = recommend;
+
+        sampler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("HxCore-CacheMetrics").daemon().factory());
+
+        long period = interval.toMillis();
+        sampler.scheduleAtFixedRate(() -> {
+            // an exception would cancel the schedule
+            try {
+                sample();
+            } catch (RuntimeException e) {
+                logger.warning("Cache metrics sample failed: " + e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        logger.info("Cache metrics sampling every " + interval.toSeconds() + "s" + (recommend ? " with recommendations" : ""));
+    }
+
+    public synchronized void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return sampler != null;
+    }
+
+    // closes the current interval for every cache, the sampler calls this on its own schedule
+    public synchronized void sample() {
+        Map<String, Sample> samples = new LinkedHashMap<>();
+        List<Recommendation> advice = new ArrayList<>();
+
+        for (Map.Entry<String, Cache<?, ?>> entry : manager.allCaches().entrySet()) {
+            String name = entry.getKey();
+            Cache<?, ?> cache = entry.getValue();
+            Recorder recorder = recorders.get(name);
+
+            long size = cache.estimatedSize();
+            long maximum = 0;
+            long weight = size;
+            boolean weighted = false;
+
+            Optional<? extends Policy.Eviction<?, ?>> eviction = cache.policy().eviction();
+            if (eviction.isPresent()) {
+                maximum = eviction.get().getMaximum();
+                weighted = eviction.get().isWeighted();
+                if (weighted) {
+                    weight = eviction.get().weightedSize().orElse(size);
+                }
+            }
+
+            long[] evicted = new long[CAUSES.length];
+            LatencyHistogram loads = null;
+            if (recorder != null) {
+                for (RemovalCause cause : CAUSES) {
+                    evicted[cause.ordinal()] = recorder.getEvictions(cause);
+                }
+                loads = recorder.drainLoadPenalty();
+            }
+
+            close(name, cache.stats(), evicted, loads, size, weight, maximum, weighted, samples, advice);
+        }
+
+        // no per cause split or load histogram here, their evictions are all for size
+        for (PrimitiveKeyCache<?> cache : manager.allPrimitiveCaches()) {
+            CacheStats stats = cache.stats();
+            long[] evicted = new long[CAUSES.length];
+            evicted[RemovalCause.SIZE.ordinal()] = stats.evictionCount();
+
+            long size = cache.estimatedSize();
+            close(cache.getName(), stats, evicted, null, size, size, cache.getMaximumSize(), false, samples, advice);
+        }
+
+        latest = samples;
+        recommendations = List.copyOf(advice);
+
+        manager.rebalanceMemoryBudget();
+    }
+
+    private void close(String name, CacheStats total, long[] evicted, LatencyHistogram loads, long size, long weight,
+                       long maximum, boolean weighted, Map<String, Sample> samples, List<Recommendation> advice) {
+        Window window = windows.computeIfAbsent(name, k -> new Window());
+        CacheStats delta = total.minus(window.stats);
+
+        Map<RemovalCause, Long> evictions = new EnumMap<>(RemovalCause.class);
+        for (RemovalCause cause : CAUSES) {
+            long count = evicted[cause.ordinal()] - window.evictions[cause.ordinal()];
+            if (count > 0) {
+                evictions.put(cause, count);
+            }
+        }
+
+        Sample sample = new Sample(name, size, weight, maximum, weighted, delta.requestCount(), delta.hitRate(),
+            evictions, delta.loadCount(),
+            loads != null ? loads.getPercentileMillis(50) : 0,
+            loads != null ? loads.getPercentileMillis(99) : 0,
+            loads != null ? loads.getMaxMillis() : 0);
+        samples.put(name, sample);
+
+        window.stats = total;
+        System.arraycopy(evicted, 0, window.evictions, 0, evicted.length);
+        window.intervals++;
+        window.peakWeight = Math.max(window.peakWeight, weight);
+
+        Recommendation diagnosis = diagnose(sample, window);
+        if (diagnosis != null) {
+            advice.add(diagnosis);
+            // only log when it changes so a steady problem doesn't repeat every interval
+            if (recommend && diagnosis.issue() != window.issue) {
+                logger.warning("Cache '" + name + "': " + diagnosis.advice());
+            }
+        }
+        window.issue = diagnosis != null ? diagnosis.issue() : null;
+    }
+
+    // rough rules of thumb, null when the cache looks fine or there wasn't enough traffic to tell
+    private static Recommendation diagnose(Sample sample, Window window) {
+        String name = sample.name();
+        long sized = sample.evictions(RemovalCause.SIZE);
+        long expired = sample.evictions(RemovalCause.EXPIRED);
+        String unit = sample.weighted() ? "maximumWeight" : "maxSize";
+
+        // oversized is judged on the peak over several intervals, quiet ones included
+        boolean oversized = sample.maximum() > 0 && window.intervals >= OVERSIZE_INTERVALS
+            && window.peakWeight < sample.maximum() / 4 && sized == 0;
+
+        String shrink = String.format("%s %d looks oversized, it has never held more than %d, try around %d",
+            unit, sample.maximum(), window.peakWeight, Math.max(1, window.peakWeight * 2));
+
+        if (sample.requests() < MIN_REQUESTS) {
+            return oversized ? new Recommendation(name, Issue.OVERSIZED, shrink) : null;
+        }
+
+        // the working set doesn't fit, half the cache got pushed out in one interval while most reads missed
+        if (sample.maximum() > 0 && sized >= Math.max(1, sample.size() / 2) && sample.hitRate() < 0.8) {
+            return new Recommendation(name, Issue.TOO_SMALL, String.format(
+                "%s %d looks too small: %.1f%% hit rate with %d size evictions this interval, try around %d",
+                unit, sample.maximum(), sample.hitRate() * 100, sized, sample.maximum() * 2));
+        }
+
+        // entries expire before they get read again
+        if (expired > sized && expired >= Math.max(1, sample.size() / 2) && sample.hitRate() < 0.5) {
+            return new Recommendation(name, Issue.TTL_TOO_SHORT, String.format(
+                "ttl looks too short: %d entries expired this interval at a %.1f%% hit rate, "
+                + "a longer expiry or refreshAfterWrite would keep them", expired, sample.hitRate() * 100));
+        }
+
+        if (oversized) {
+            return new Recommendation(name, Issue.OVERSIZED, shrink);
+        }
+
+        // nothing is being pushed out, keys just aren't read twice
+        if (sample.hitRate() < 0.05 && sized == 0 && expired == 0) {
+            return new Recommendation(name, Issue.LOW_REUSE, String.format(
+                "%.1f%% hit rate with nothing evicted, keys are rarely read twice so this cache may not be worth keeping",
+                sample.hitRate() * 100));
+        }
+
+        return null;
+    }
+
+    public boolean isRecommending() {
+        return recommend;
+    }
+
+    public void setRecommending(boolean recommend) {
+        this.recommend = recommend;
+    }
+
+    // last closed interval per cache, empty until the first sample
+    public Map<String, Sample> getLatest() {
+        return latest;
+    }
+
+    public Sample getLatest(String cacheName) {
+        return latest.get(cacheName);
+    }
+
+    // from the last interval, filled in whether or not recommendations are being logged
+    public List<Recommendation> getRecommendations() {
+        return recommendations;
+    }
+
+    // null for primitive key caches, which keep their own counters
+    public Recorder getRecorder(String cacheName) {
+        return recorders.get(cacheName);
+    }
+
+    // human readable dump of the last interval, one line per cache
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+
+        for (Sample sample : latest.values()) {
+            lines.add(String.format(
+                "%s: size=%d, weight=%d/%s | %d requests, hit rate=%.2f%% | evicted size=%d expired=%d collected=%d | " +
+                "%d loads, p50=%.2fms p99=%.2fms max=%.2fms",
+                sample.name(), sample.size(), sample.weight(), sample.maximum() > 0 ? Long.toString(sample.maximum()) : "unbounded",
+                sample.requests(), sample.hitRate() * 100,
+                sample.evictions(RemovalCause.SIZE), sample.evictions(RemovalCause.EXPIRED), sample.evictions(RemovalCause.COLLECTED),
+                sample.loads(), sample.loadP50Millis(), sample.loadP99Millis(), sample.loadMaxMillis()
+            ));
+        }
+
+        for (Recommendation recommendation : recommendations) {
+            lines.add("! " + recommendation.cache() + ": " + recommendation.advice());
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,119 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+// one cache's entries on disk so a restart doesn't start cold. layout is a header then
+// (more, expiresAt, key, value) records until more is false. expiresAt is wall clock millis so the
+// remaining ttl survives the restart, -1 for caches without one
+
+final class CacheSnapshot<K, V> {
+
+    private static final int MAGIC = 0x48584353; // "HXCS"
+    private static final int VERSION = 1;
+    private static final long NO_EXPIRY = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CacheCodec<K> keys;
+    private final CacheCodec<V> values;
+
+    CacheSnapshot(CacheCodec<K> keys, CacheCodec<V> values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    // written to a temp file and moved over the old one, so a crash mid-save never leaves half a snapshot
+    int save(Cache<K, V> cache, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Optional<Policy.VarExpiration<K, V>> expiration = cache.policy().expireVariably();
+        long now = System.currentTimeMillis();
+        int count = 0;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            for (Map.Entry<K, V> entry : cache.asMap().entrySet()) {
+                long expiresAt = NO_EXPIRY;
+                if (expiration.isPresent()) {
+                    Optional<Duration> remaining = expiration.get().getExpiresAfter(entry.getKey());
+                    if (remaining.isEmpty()) {
+                        continue; // expired while we were walking
+                    }
+                    expiresAt = now + remaining.get().toMillis();
+                }
+
+                out.writeBoolean(true);
+                out.writeLong(expiresAt);
+                keys.encode(entry.getKey(), out);
+                values.encode(entry.getValue(), out);
+                count++;
+            }
+
+            out.writeBoolean(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    // anything already cached wins over the snapshot's copy, expired entries are skipped. the file is
+    // deleted afterwards so an old snapshot can't come back after a crash
+    int load(Cache<K, V> cache, Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        Optional<Policy.VarExpiration<K, V>> expiration = cache.policy().expireVariably();
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE))) {
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a cache snapshot (or an older format): " + file);
+            }
+
+            while (in.readBoolean()) {
+                long expiresAt = in.readLong();
+                K key = keys.decode(in);
+                V value = values.decode(in);
+
+                if (expiresAt == NO_EXPIRY || expiration.isEmpty()) {
+                    if (cache.asMap().putIfAbsent(key, value) == null) {
+                        loaded++;
+                    }
+                } else if (expiresAt > now) {
+                    if (expiration.get().putIfAbsent(key, value, Duration.ofMillis(expiresAt - now)) == null) {
+                        loaded++;
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        return loaded;
+    }
+}
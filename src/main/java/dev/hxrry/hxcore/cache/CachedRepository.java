@@ -0,0 +1,358 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import dev.hxrry.hxcore.database.Database;
+import dev.hxrry.hxcore.database.FlushChain;
+import dev.hxrry.hxcore.database.RowMapper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+// one cache in front of one table, so plugins stop hand rolling "check cache, else query, else put"
+// reads load through the cache (bulk misses become one IN query), saves go into a dirty map that is
+// the source of truth until the row is written:
+//  - WRITE_THROUGH writes straight away, the future completes once the row is in the database
+//  - WRITE_BEHIND writes every flush interval, so a player's data is loaded on join and saved in batches
+// an evicted entry that's still dirty is flushed, and reads check the dirty map first so they never see
+// the older database copy in the meantime. get one from CacheManager.repository
+
+public class CachedRepository<K, V> {
+
+    public enum WriteMode {
+        WRITE_THROUGH,
+        WRITE_BEHIND
+    }
+
+    private final String name;
+    private final CacheManager manager;
+    private final Database database;
+    private final Logger logger;
+    private final String table;
+    private final String keyColumn;
+    private final List<String> columns;
+    private final Function<V, K> keyOf;
+    private final Function<V, Object[]> values;
+    private final WriteMode mode;
+    private final AsyncLoadingCache<K, V> cache;
+    private final FlushChain flushes;
+
+    // each save gets a new sequence, a flush only clears entries that weren't saved again since its snapshot.
+    // comparing values wouldn't do, a mutable value re-saved mid flush is the same instance
+    private final Map<K, Dirty<V>> dirty = new ConcurrentHashMap<>();
+    private final AtomicLong saves = new AtomicLong();
+    private volatile boolean closed;
+
+    private record Dirty<V>(V value, long sequence) {}
+
+    private CachedRepository(Builder<K, V> builder) {
+        this.name = builder.name;
+        this.manager = builder.manager;
+        this.database = builder.database;
+        this.logger = builder.manager.getLogger();
+        this.table = builder.table;
+        this.keyColumn = builder.keyColumn;
+        this.columns = List.copyOf(builder.columns);
+        this.keyOf = builder.keyOf;
+        this.values = builder.values;
+        this.mode = builder.mode;
+
+        QueryLoader<K, V> loader = new QueryLoader<>(database, table, keyColumn, builder.mapper, keyOf);
+
+        // dirty rows leaving the cache get written now rather than waiting for the next tick
+        RemovalListener<K, V> onRemoval = (key, value, cause) -> {
+            if (cause.wasEvicted() && key != null && dirty.containsKey(key)) {
+                flush();
+            }
+        };
+
+        CacheManager.CacheBuilder<K, V> spec = builder.manager.<K, V>builder(name)
+            .queryLoader(loader)
+            .onRemoval(onRemoval);
+        if (builder.expireAfterAccess != null) {
+            spec.expireAfterAccess(builder.expireAfterAccess.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (builder.maxSize != null) {
+            spec.maximumSize(builder.maxSize);
+        }
+        this.cache = spec.buildAsync();
+
+        this.flushes = new FlushChain("HxCore-Repository-" + name, logger);
+        if (mode == WriteMode.WRITE_BEHIND) {
+            flushes.schedule(builder.flushInterval, this::flush);
+        }
+    }
+
+    // read-through, completes with null when there's no row
+    public CompletableFuture<V> get(K key) {
+        Dirty<V> pending = dirty.get(key);
+        if (pending != null) {
+            return CompletableFuture.completedFuture(pending.value());
+        }
+        return cache.get(key);
+    }
+
+    // misses across all the keys go out as one query, keys with no row are left out
+    public CompletableFuture<Map<K, V>> getAll(Iterable<? extends K> keys) {
+        Map<K, V> found = new HashMap<>();
+        Set<K> missing = new LinkedHashSet<>();
+
+        for (K key : keys) {
+            Dirty<V> pending = dirty.get(key);
+            if (pending != null) {
+                found.put(key, pending.value());
+            } else {
+                missing.add(key);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(found);
+        }
+        return cache.getAll(missing).thenApply(loaded -> {
+            found.putAll(loaded);
+            return found;
+        });
+    }
+
+    // never loads, for the main thread once get() has been warmed on join
+    public V getIfLoaded(K key) {
+        Dirty<V> pending = dirty.get(key);
+        return pending != null ? pending.value() : cache.synchronous().getIfPresent(key);
+    }
+
+    // cached now, persisted per the write mode. the future completes once this value (or a newer one) is written
+    public CompletableFuture<Void> save(V value) {
+        if (closed) {
+            throw new IllegalStateException("Repository '" + name + "' is closed");
+        }
+
+        K key = keyOf.apply(value);
+        dirty.put(key, new Dirty<>(value, saves.incrementAndGet()));
+        cache.synchronous().put(key, value);
+
+        return mode == WriteMode.WRITE_THROUGH ? flush() : CompletableFuture.completedFuture(null);
+    }
+
+    // drops the row everywhere, ordered after any flush already queued so it can't be written back.
+    // a save made after this call is newer than the delete, it stays dirty and cached and its flush
+    // (queued behind this) writes the row again
+    public CompletableFuture<Integer> delete(K key) {
+        long deletedAt = saves.get();
+
+        return flushes.then(() -> {
+            Dirty<V> kept = dirty.computeIfPresent(key,
+                (k, current) -> current.sequence() <= deletedAt ? null : current);
+            if (kept == null) {
+                cache.synchronous().invalidate(key);
+            }
+
+            return database.updateAsync("DELETE FROM " + table + " WHERE " + keyColumn + " = ?", key)
+                .thenApply(rows -> {
+                    manager.publishInvalidation(name, List.of(key));
+                    return rows;
+                });
+        });
+    }
+
+    // write anything dirty then forget the entry, e.g. when a player quits
+    public CompletableFuture<Void> unload(K key) {
+        return flush().thenRun(() -> {
+            if (!dirty.containsKey(key)) {
+                cache.synchronous().invalidate(key);
+            }
+        });
+    }
+
+    public int dirtyCount() {
+        return dirty.size();
+    }
+
+    // writes everything dirty in one batched upsert, after any flush or delete already queued
+    public CompletableFuture<Void> flush() {
+        return flushes.then(this::write);
+    }
+
+    private CompletableFuture<Void> write() {
+        Map<K, Dirty<V>> snapshot = new HashMap<>(dirty);
+        if (snapshot.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<Object[]> rows = new ArrayList<>(snapshot.size());
+        int dropped = 0;
+        Iterator<Map.Entry<K, Dirty<V>>> entries = snapshot.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<K, Dirty<V>> entry = entries.next();
+            Object[] row = toRow(entry.getKey(), entry.getValue());
+            if (row != null) {
+                rows.add(row);
+                continue;
+            }
+
+            // it would fail the same way every time, so it's dropped rather than holding back every other row.
+            // saving the key again makes it dirty again
+            entries.remove();
+            clearIfUnchanged(entry.getKey(), entry.getValue().sequence());
+            dropped++;
+        }
+
+        int unwritable = dropped;
+        CompletableFuture<Integer> written = rows.isEmpty()
+            ? CompletableFuture.completedFuture(0)
+            : database.upsertManyAsync(table, keyColumn, columns, rows);
+
+        return written.handle((affected, e) -> {
+            if (e != null) {
+                logger.warning("Repository '" + name + "' failed to write " + snapshot.size() + " rows, keeping them dirty: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+
+            // only clear what wasn't saved again while we were writing
+            snapshot.forEach((key, pending) -> clearIfUnchanged(key, pending.sequence()));
+            if (!snapshot.isEmpty()) {
+                manager.publishInvalidation(name, snapshot.keySet());
+            }
+
+            // the rest went out, but a write-through caller still has to hear that not everything did
+            if (unwritable > 0) {
+                throw new IllegalStateException("Repository '" + name + "' couldn't save " + unwritable + " rows, see the log");
+            }
+            return null;
+        });
+    }
+
+    private void clearIfUnchanged(K key, long sequence) {
+        dirty.computeIfPresent(key, (k, current) -> current.sequence() == sequence ? null : current);
+    }
+
+    // null (and logged) when the value can't be turned into a row
+    private Object[] toRow(K key, Dirty<V> pending) {
+        Object[] columnValues;
+        try {
+            columnValues = values.apply(pending.value());
+        } catch (RuntimeException e) {
+            logger.severe("Repository '" + name + "' couldn't get the column values of " + key + ", not saving it: " + e.getMessage());
+            return null;
+        }
+
+        if (columnValues == null || columnValues.length != columns.size()) {
+            logger.severe("Repository '" + name + "' expected " + columns.size() + " values for " + key + " but got "
+                + (columnValues == null ? "null" : columnValues.length) + ", not saving it");
+            return null;
+        }
+
+        Object[] row = new Object[columnValues.length + 1];
+        row[0] = key;
+        System.arraycopy(columnValues, 0, row, 1, columnValues.length);
+        return row;
+    }
+
+    // stops the timer and blocks until everything dirty is written
+    void close() {
+        closed = true;
+        flushes.stopTimer();
+
+        try {
+            flush().join();
+        } catch (Exception e) {
+            logger.severe("Repository '" + name + "' drain failed, " + dirty.size() + " rows were not saved: " + e.getMessage());
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public AsyncLoadingCache<K, V> getCache() {
+        return cache;
+    }
+
+    public static class Builder<K, V> {
+        private final CacheManager manager;
+        private final String name;
+        private final Database database;
+        private String table;
+        private String keyColumn;
+        private RowMapper<V> mapper;
+        private Function<V, K> keyOf;
+        private List<String> columns;
+        private Function<V, Object[]> values;
+        private WriteMode mode = WriteMode.WRITE_THROUGH;
+        private Duration flushInterval = Duration.ofSeconds(30);
+        private Duration expireAfterAccess;
+        private Integer maxSize;
+
+        Builder(CacheManager manager, String name, Database database) {
+            this.manager = manager;
+            this.name = name;
+            this.database = database;
+        }
+
+        public Builder<K, V> table(String table, String keyColumn) {
+            this.table = table;
+            this.keyColumn = keyColumn;
+            return this;
+        }
+
+        // how rows become values and how to get the key back out of one
+        public Builder<K, V> mapper(RowMapper<V> mapper, Function<V, K> keyOf) {
+            this.mapper = mapper;
+            this.keyOf = keyOf;
+            return this;
+        }
+
+        // the non-key columns written on save, values must come back in the same order
+        public Builder<K, V> columns(List<String> columns, Function<V, Object[]> values) {
+            this.columns = columns;
+            this.values = values;
+            return this;
+        }
+
+        public Builder<K, V> writeThrough() {
+            this.mode = WriteMode.WRITE_THROUGH;
+            return this;
+        }
+
+        public Builder<K, V> writeBehind(long interval, TimeUnit unit) {
+            this.mode = WriteMode.WRITE_BEHIND;
+            this.flushInterval = Duration.of(interval, unit.toChronoUnit());
+            return this;
+        }
+
+        public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+            this.expireAfterAccess = Duration.of(duration, unit.toChronoUnit());
+            return this;
+        }
+
+        public Builder<K, V> maximumSize(int size) {
+            this.maxSize = size;
+            return this;
+        }
+
+        public CachedRepository<K, V> build() {
+            if (table == null || mapper == null || columns == null) {
+                throw new IllegalStateException("Repository '" + name + "' needs table, mapper and columns set");
+            }
+            manager.claimRepository(name);
+            try {
+                return manager.register(new CachedRepository<>(this));
+            } catch (RuntimeException e) {
+                manager.releaseRepository(name);
+                throw e;
+            }
+        }
+    }
+}
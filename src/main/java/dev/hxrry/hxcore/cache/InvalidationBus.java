@@ -0,0 +1,135 @@
+package dev.hxrry.hxcore.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+// (cache, keys) events on top of a transport. message is "origin|cache|keys" where keys are
+// type-tagged and joined with \u001f, or "*" for the whole cache. our own messages come back
+// through LISTEN too, the origin is how we skip them
+
+final class InvalidationBus implements InvalidationTransport.Listener {
+
+    private static final int MAX_MESSAGE_BYTES = 7900; // NOTIFY payloads must stay under 8000 bytes of utf-8
+    private static final char KEY_SEPARATOR = '\u001f';
+    private static final String ALL = "*";
+
+    private final String origin = UUID.randomUUID().toString();
+    private final CacheManager manager;
+    private final InvalidationTransport transport;
+    private final InvalidationTransport.Subscription subscription;
+    private final Logger logger;
+
+    InvalidationBus(CacheManager manager, InvalidationTransport transport, Logger logger) {
+        this.manager = manager;
+        this.transport = transport;
+        this.logger = logger;
+        this.subscription = transport.subscribe(this);
+    }
+
+    // keys are packed into as few messages as fit. sizes are counted in utf-8 bytes since that's what
+    // the limit is on, a key too big for a message of its own clears the whole cache on peers instead
+    void publish(String cacheName, Collection<?> keys) {
+        String prefix = origin + "|" + cacheName + "|";
+        int prefixBytes = utf8Length(prefix);
+        StringBuilder message = new StringBuilder(prefix);
+        int emptyLength = message.length();
+        int bytes = prefixBytes;
+
+        for (Object key : keys) {
+            String encoded = encodeKey(key);
+            int keyBytes = utf8Length(encoded);
+            if (prefixBytes + keyBytes > MAX_MESSAGE_BYTES) {
+                logger.fine("Invalidation key for cache '" + cacheName + "' is too long to send, clearing it on peers");
+                publishClear(cacheName);
+                return;
+            }
+
+            if (message.length() > emptyLength && bytes + 1 + keyBytes > MAX_MESSAGE_BYTES) {
+                transport.publish(message.toString());
+                message.setLength(emptyLength);
+                bytes = prefixBytes;
+            }
+            if (message.length() > emptyLength) {
+                message.append(KEY_SEPARATOR);
+                bytes++;
+            }
+            message.append(encoded);
+            bytes += keyBytes;
+        }
+
+        if (message.length() > emptyLength) {
+            transport.publish(message.toString());
+        }
+    }
+
+    void publishClear(String cacheName) {
+        transport.publish(origin + "|" + cacheName + "|" + ALL);
+    }
+
+    @Override
+    public void onMessage(String message) {
+        String[] parts = message.split("\\|", 3);
+        if (parts.length != 3) {
+            logger.warning("Ignoring malformed cache invalidation: " + message);
+            return;
+        }
+        if (parts[0].equals(origin)) {
+            return;
+        }
+
+        String cacheName = parts[1];
+        if (parts[2].equals(ALL)) {
+            manager.clearLocal(cacheName);
+            return;
+        }
+
+        List<Object> keys = new ArrayList<>();
+        for (String encoded : parts[2].split(String.valueOf(KEY_SEPARATOR))) {
+            keys.add(decodeKey(encoded));
+        }
+        manager.invalidateLocal(cacheName, keys);
+    }
+
+    // can't tell what we missed, so nothing cached can be trusted
+    @Override
+    public void onGap() {
+        logger.info("Cache invalidations may have been missed, clearing local caches");
+        manager.clearAllLocal();
+    }
+
+    // the transport may be shared with other managers, so only our listener comes off it
+    void close() {
+        subscription.unsubscribe();
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // common key types come back as themselves, anything else as its toString and is matched on that
+    private static String encodeKey(Object key) {
+        if (key instanceof UUID) return "u:" + key;
+        if (key instanceof String) return "s:" + key;
+        if (key instanceof Integer) return "i:" + key;
+        if (key instanceof Long) return "l:" + key;
+        return "o:" + key;
+    }
+
+    private static Object decodeKey(String encoded) {
+        String value = encoded.substring(2);
+        return switch (encoded.charAt(0)) {
+            case 'u' -> UUID.fromString(value);
+            case 's' -> value;
+            case 'i' -> Integer.valueOf(value);
+            case 'l' -> Long.valueOf(value);
+            default -> new ToStringKey(value);
+        };
+    }
+
+    // stands in for a key type we can't rebuild, CacheManager matches it against key.toString()
+    record ToStringKey(String value) {}
+}
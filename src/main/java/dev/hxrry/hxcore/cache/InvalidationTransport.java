@@ -0,0 +1,30 @@
+package dev.hxrry.hxcore.cache;
+
+// carries invalidation messages between servers, CacheManager does the encoding so a transport
+// only ever sees opaque strings. see PostgresInvalidationTransport and LocalInvalidationTransport
+
+public interface InvalidationTransport extends AutoCloseable {
+
+    // fire and forget, delivery to peers is best effort
+    void publish(String message);
+
+    // unsubscribing removes just this listener, the transport stays up for anyone else on it
+    Subscription subscribe(Listener listener);
+
+    // for whoever created the transport, once nothing uses it any more
+    @Override
+    void close();
+
+    @FunctionalInterface
+    interface Subscription {
+        void unsubscribe();
+    }
+
+    interface Listener {
+        void onMessage(String message);
+
+        // messages may have been missed (e.g. the connection dropped), anything cached could be stale
+        default void onGap() {
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package dev.hxrry.hxcore.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// in-process stand-in for tests and single-jvm setups: every CacheManager attached to the same
+// instance sees every message straight away, on the publishing thread
+
+public class LocalInvalidationTransport implements InvalidationTransport {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String message) {
+        for (Listener listener : listeners) {
+            listener.onMessage(message);
+        }
+    }
+
+    @Override
+    public Subscription subscribe(Listener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        listeners.clear();
+    }
+}
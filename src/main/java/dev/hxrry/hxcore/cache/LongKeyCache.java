@@ -0,0 +1,36 @@
+package dev.hxrry.hxcore.cache;
+
+import java.time.Duration;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+
+// cache keyed by a raw long, e.g. packed chunk/block coordinates, no Long boxing on get or put.
+// get one from CacheManager.createLongCache
+
+public final class LongKeyCache<V> extends PrimitiveKeyCache<V> {
+
+    LongKeyCache(String name, int maxSize, Duration expireAfterWrite) {
+        super(name, false, maxSize, expireAfterWrite);
+    }
+
+    public V getIfPresent(long key) {
+        return lookup(0, key);
+    }
+
+    public V get(long key, LongFunction<V> loader) {
+        return load(0, key, () -> loader.apply(key));
+    }
+
+    public void put(long key, V value) {
+        store(0, key, value);
+    }
+
+    public void invalidate(long key) {
+        remove(0, key);
+    }
+
+    // e.g. every packed chunk key in one region
+    public void invalidateIf(LongPredicate matches) {
+        removeIf(matches);
+    }
+}
@@ -0,0 +1,168 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+
+// one memory cap shared by every weighted cache in a CacheManager. the maximum weights always add up to
+// at most the budget, and each metrics interval they get re-split by how much a cache's memory is worth:
+//  - every cache keeps a floor of a tenth of an even split so an idle one can come back
+//  - the rest goes by hits, plus half the misses of a cache evicting for size since room would turn some into hits
+//  - a cache that isn't evicting for size is capped at twice what it holds, the surplus goes to the others
+//  - maxima move halfway to their new share each interval so one noisy interval can't flush a cache
+// caches without a weigher count entries not bytes, so they're outside the budget
+
+final class MemoryBudget {
+
+    private static final int FLOOR_DIVISOR = 10;
+
+    private final long totalBytes;
+    private final Logger logger;
+    private Set<String> lastParticipants = Set.of();
+
+    private record Share(String name, Policy.Eviction<?, ?> eviction, long weight, long maximum, double score, long cap) {}
+
+    MemoryBudget(long totalBytes, Logger logger) {
+        this.totalBytes = totalBytes;
+        this.logger = logger;
+    }
+
+    // what a cache joining the budget starts with, rebalance() right after settles it properly
+    long initialShare(int participants) {
+        return Math.max(1, totalBytes / (participants + 1));
+    }
+
+    synchronized void rebalance(Map<String, Cache<?, ?>> caches, Map<String, CacheMetrics.Sample> samples) {
+        List<Share> shares = new ArrayList<>();
+        for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+            Optional<? extends Policy.Eviction<?, ?>> eviction = entry.getValue().policy().eviction();
+            if (eviction.isEmpty() || !eviction.get().isWeighted()) {
+                continue;
+            }
+
+            long weight = eviction.get().weightedSize().orElse(0);
+            long maximum = eviction.get().getMaximum();
+            CacheMetrics.Sample sample = samples.get(entry.getKey());
+
+            double score = 0;
+            long cap = Long.MAX_VALUE;
+            if (sample != null) {
+                boolean pressured = sample.evictions(RemovalCause.SIZE) > 0;
+                double hits = sample.requests() * sample.hitRate();
+                double misses = sample.requests() - hits;
+                score = hits + (pressured ? misses / 2 : 0);
+                if (!pressured) {
+                    cap = Math.max(weight * 2, 1);
+                }
+            }
+
+            shares.add(new Share(entry.getKey(), eviction.get(), weight, maximum, score, cap));
+        }
+
+        if (shares.isEmpty()) {
+            return;
+        }
+
+        long[] targets = split(totalBytes,
+            shares.stream().mapToDouble(Share::score).toArray(),
+            shares.stream().mapToLong(Share::cap).toArray());
+
+        // only smooth once everyone has been through a rebalance, a new cache's guess has to be fixed now
+        Set<String> participants = new HashSet<>();
+        shares.forEach(share -> participants.add(share.name()));
+        boolean smooth = participants.equals(lastParticipants);
+        lastParticipants = participants;
+
+        for (int i = 0; i < shares.size(); i++) {
+            Share share = shares.get(i);
+            // rounded down either way so the maxima can never add up past the budget
+            long next = smooth ? share.maximum() + Math.floorDiv(targets[i] - share.maximum(), 2) : targets[i];
+            next = Math.max(1, next);
+
+            if (next != share.maximum()) {
+                share.eviction().setMaximum(next);
+                logger.fine("Cache '" + share.name() + "' maximum weight " + share.maximum() + " -> " + next
+                    + " (holding " + share.weight() + ", score " + String.format("%.0f", share.score()) + ")");
+            }
+        }
+    }
+
+    // water filling: hand out what's left by score, anyone who hits their cap drops out and the rest re-split.
+    // caps are Long.MAX_VALUE for uncapped, the targets never add up to more than total
+    static long[] split(long total, double[] scores, long[] caps) {
+        int count = scores.length;
+        long floor = Math.max(1, total / ((long) count * FLOOR_DIVISOR));
+        long[] targets = new long[count];
+        boolean[] capped = new boolean[count];
+
+        long remaining = Math.max(0, total - floor * count);
+        for (int i = 0; i < count; i++) {
+            targets[i] = floor;
+        }
+
+        for (int round = 0; round < count && remaining > 0; round++) {
+            double scoreSum = 0;
+            int open = 0;
+            for (int i = 0; i < count; i++) {
+                if (!capped[i]) {
+                    scoreSum += scores[i];
+                    open++;
+                }
+            }
+            if (open == 0) {
+                break;
+            }
+
+            // no traffic anywhere yet, split evenly
+            boolean even = scoreSum <= 0;
+            boolean hitCap = false;
+            long handedOut = 0;
+            long[] extra = new long[count];
+
+            for (int i = 0; i < count; i++) {
+                if (capped[i]) {
+                    continue;
+                }
+                extra[i] = (long) (remaining * (even ? 1.0 / open : scores[i] / scoreSum));
+
+                if (caps[i] != Long.MAX_VALUE && targets[i] + extra[i] >= caps[i]) {
+                    extra[i] = Math.max(0, caps[i] - targets[i]);
+                    capped[i] = true;
+                    hitCap = true;
+                }
+                handedOut += extra[i];
+            }
+
+            if (hitCap) {
+                // capped caches take exactly their cap, everyone else goes round again with what's left
+                for (int i = 0; i < count; i++) {
+                    if (capped[i] && extra[i] > 0) {
+                        targets[i] += extra[i];
+                        remaining -= extra[i];
+                    }
+                }
+                continue;
+            }
+
+            for (int i = 0; i < count; i++) {
+                targets[i] += extra[i];
+            }
+            remaining -= handedOut;
+            break;
+        }
+
+        return targets;
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+}
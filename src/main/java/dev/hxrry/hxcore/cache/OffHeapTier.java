@@ -0,0 +1,333 @@
+package dev.hxrry.hxcore.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+// second tier for caches with big values: entries the heap cache evicts for size get encoded into
+// native memory instead of dropped, and a hit moves them back up. memcached style slabs - pages (1MB,
+// smaller for small capacities so there are pages to go round) carved into power of two chunks per size
+// class, so there's no fragmentation and the total never goes past capacity. a full class recycles its
+// own least recently used chunk, and a class left with no page once capacity is reached takes the page
+// holding the coldest entry of the class with the most, so the first hot size can't lock every other
+// size out (memcached calls that slab calcification). values bigger than a page aren't kept.
+// demoted entries get the cache's ttl again from demotion, so one can outlive its write ttl by the
+// time it spent on heap. invalidation always reaches both tiers.
+// the index is concurrent so a miss (most lookups) never takes the lock, and encoding/decoding happens
+// outside it too - the monitor only covers the slab bookkeeping and the copy in or out of a chunk
+
+public final class OffHeapTier<K, V> {
+
+    private static final int MAX_PAGE_SIZE = 1 << 20; // 1MB
+    private static final int MIN_PAGE_SIZE = 1 << 16; // 64KB
+    private static final int MIN_CHUNK_SHIFT = 6; // 64B
+
+    private final String name;
+    private final CacheCodec<V> codec;
+    private final int pageSize;
+    private final long maxPages;
+    private final long ttlNanos; // 0 = no expiry
+    private final Logger logger;
+
+    private final Map<K, Slot> index = new ConcurrentHashMap<>(); // changed under the lock, read without it
+    private final List<SlabClass<K>> classes = new ArrayList<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private Arena arena;
+    private long pages;
+    private long usedBytes;
+    private long reassigned;
+
+    private record Slot(int slabClass, MemorySegment chunk, int length, long deadline) {}
+
+    private static final class SlabClass<K> {
+        private final List<MemorySegment> pages = new ArrayList<>();
+        private final ArrayDeque<MemorySegment> free = new ArrayDeque<>();
+        private final LinkedHashMap<K, Slot> lru = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    OffHeapTier(String name, CacheCodec<V> codec, long capacityBytes, Duration ttl, Logger logger) {
+        // anything less would still reserve a whole page, so the capacity wouldn't be what was asked for
+        if (capacityBytes < MIN_PAGE_SIZE) {
+            throw new IllegalArgumentException("Off-heap tier of '" + name + "' needs at least " + MIN_PAGE_SIZE
+                + " bytes, got " + capacityBytes);
+        }
+
+        this.name = name;
+        this.codec = codec;
+        // about 16 pages to a capacity so classes have pages to hand between them
+        long perClass = Integer.highestOneBit((int) Math.min(MAX_PAGE_SIZE, Math.max(1, capacityBytes / 16)));
+        this.pageSize = (int) Math.max(MIN_PAGE_SIZE, perClass);
+        this.maxPages = Math.max(1, capacityBytes / pageSize);
+        this.ttlNanos = ttl != null ? ttl.toNanos() : 0;
+        this.logger = logger;
+
+        int classCount = Integer.numberOfTrailingZeros(pageSize) - MIN_CHUNK_SHIFT + 1; // 64B .. pageSize
+        for (int i = 0; i < classCount; i++) {
+            classes.add(new SlabClass<>());
+        }
+    }
+
+    // false when the value won't fit anywhere (bigger than a page, or its class has no room and nothing to recycle)
+    boolean put(K key, V value) {
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+            codec.encode(value, new DataOutputStream(buffer));
+            bytes = buffer.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Off-heap tier of '" + name + "' couldn't encode " + key + ": " + e.getMessage());
+            return false;
+        }
+
+        synchronized (this) {
+            release(index.remove(key), key);
+
+            int slabClass = classFor(bytes.length);
+            MemorySegment chunk = slabClass < 0 ? null : allocate(slabClass);
+            if (chunk == null) {
+                rejected.increment();
+                return false;
+            }
+
+            MemorySegment.copy(bytes, 0, chunk, ValueLayout.JAVA_BYTE, 0, bytes.length);
+
+            Slot slot = new Slot(slabClass, chunk, bytes.length, ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0);
+            index.put(key, slot);
+            classes.get(slabClass).lru.put(key, slot);
+            usedBytes += chunk.byteSize();
+            return true;
+        }
+    }
+
+    // promotion: the entry leaves this tier, null if it isn't here or has expired
+    V take(K key) {
+        if (!index.containsKey(key)) {
+            misses.increment();
+            return null;
+        }
+
+        byte[] bytes;
+        synchronized (this) {
+            Slot slot = index.remove(key);
+            if (slot == null) {
+                misses.increment();
+                return null;
+            }
+
+            try {
+                if (slot.deadline() != 0 && System.nanoTime() - slot.deadline() > 0) {
+                    misses.increment();
+                    return null;
+                }
+                bytes = slot.chunk().asSlice(0, slot.length()).toArray(ValueLayout.JAVA_BYTE);
+            } finally {
+                release(slot, key);
+            }
+        }
+
+        try {
+            V value = codec.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+            hits.increment();
+            return value;
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Off-heap tier of '" + name + "' couldn't decode " + key + ", dropping it: " + e.getMessage());
+            misses.increment();
+            return null;
+        }
+    }
+
+    // every write to the heap cache comes through here, so the usual nothing-demoted case skips the lock
+    void remove(Object key) {
+        if (!index.containsKey(key)) {
+            return;
+        }
+        synchronized (this) {
+            release(index.remove(key), key);
+        }
+    }
+
+    synchronized void removeIf(Predicate<K> matches) {
+        Iterator<Map.Entry<K, Slot>> entries = index.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<K, Slot> entry = entries.next();
+            if (matches.test(entry.getKey())) {
+                entries.remove();
+                release(entry.getValue(), entry.getKey());
+            }
+        }
+    }
+
+    // hands all native memory back, the next put starts a fresh arena
+    synchronized void clear() {
+        index.clear();
+        for (SlabClass<K> slabClass : classes) {
+            slabClass.pages.clear();
+            slabClass.free.clear();
+            slabClass.lru.clear();
+        }
+
+        if (arena != null) {
+            arena.close();
+            arena = null;
+        }
+        pages = 0;
+        usedBytes = 0;
+    }
+
+    private void release(Slot slot, Object key) {
+        if (slot == null) {
+            return;
+        }
+
+        SlabClass<K> slabClass = classes.get(slot.slabClass());
+        slabClass.lru.remove(key);
+        slabClass.free.push(slot.chunk());
+        usedBytes -= slot.chunk().byteSize();
+    }
+
+    private MemorySegment allocate(int slabClass) {
+        SlabClass<K> target = classes.get(slabClass);
+
+        if (target.free.isEmpty() && pages < maxPages) {
+            if (arena == null) {
+                arena = Arena.ofShared();
+            }
+
+            carve(slabClass, arena.allocate(pageSize, 64));
+            pages++;
+        } else if (target.free.isEmpty() && target.lru.isEmpty()) {
+            // no page of its own and none left to reserve, borrow one instead of rejecting this size until clear()
+            MemorySegment page = reclaimPage(slabClass);
+            if (page != null) {
+                carve(slabClass, page);
+            }
+        }
+
+        // out of pages, recycle this class's coldest entry
+        if (target.free.isEmpty() && !target.lru.isEmpty()) {
+            K coldest = target.lru.keySet().iterator().next();
+            release(index.remove(coldest), coldest);
+        }
+
+        return target.free.poll();
+    }
+
+    // cut a page into this class's chunk size
+    private void carve(int slabClass, MemorySegment page) {
+        SlabClass<K> target = classes.get(slabClass);
+        long chunkSize = 1L << (slabClass + MIN_CHUNK_SHIFT);
+
+        target.pages.add(page);
+        for (long offset = 0; offset < pageSize; offset += chunkSize) {
+            target.free.push(page.asSlice(offset, chunkSize));
+        }
+    }
+
+    // empties the page holding the coldest entry of the class with the most pages and takes it off that class
+    private MemorySegment reclaimPage(int except) {
+        SlabClass<K> donor = null;
+        for (int i = 0; i < classes.size(); i++) {
+            SlabClass<K> candidate = classes.get(i);
+            if (i != except && candidate.pages.size() > (donor == null ? 0 : donor.pages.size())) {
+                donor = candidate;
+            }
+        }
+        if (donor == null) {
+            return null;
+        }
+
+        MemorySegment page = donor.pages.getLast();
+        if (!donor.lru.isEmpty()) {
+            MemorySegment coldest = donor.lru.values().iterator().next().chunk();
+            for (MemorySegment candidate : donor.pages) {
+                if (contains(candidate, coldest)) {
+                    page = candidate;
+                    break;
+                }
+            }
+        }
+
+        List<K> evicted = new ArrayList<>();
+        for (Map.Entry<K, Slot> entry : donor.lru.entrySet()) {
+            if (contains(page, entry.getValue().chunk())) {
+                evicted.add(entry.getKey());
+            }
+        }
+        for (K key : evicted) {
+            release(index.remove(key), key);
+        }
+
+        MemorySegment reclaimed = page;
+        donor.free.removeIf(chunk -> contains(reclaimed, chunk));
+        donor.pages.remove(page);
+        reassigned++;
+        return page;
+    }
+
+    private boolean contains(MemorySegment page, MemorySegment chunk) {
+        long offset = chunk.address() - page.address();
+        return offset >= 0 && offset < pageSize;
+    }
+
+    private int classFor(int length) {
+        if (length > pageSize) {
+            return -1;
+        }
+
+        int shift = Math.max(MIN_CHUNK_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, length) - 1));
+        return shift - MIN_CHUNK_SHIFT;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // bytes in chunks currently holding values, capacity is what's been reserved from the OS so far
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return pages * pageSize;
+    }
+
+    public long getCapacityBytes() {
+        return maxPages * pageSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // values that couldn't be demoted and were dropped instead
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    // pages moved from one size class to another
+    public synchronized long getReassignedPageCount() {
+        return reassigned;
+    }
+}
@@ -0,0 +1,143 @@
+package dev.hxrry.hxcore.cache;
+
+import dev.hxrry.hxcore.database.PostgreSQLDatabase;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+// LISTEN/NOTIFY over the database every server already shares. publishing is a write on the pool
+// (always the primary, replicas can't NOTIFY), listening holds one unpooled connection on its own
+// thread and reconnects with backoff. after a reconnect listeners get onGap since NOTIFY isn't replayed
+
+public class PostgresInvalidationTransport implements InvalidationTransport {
+
+    private static final int POLL_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long CLOSE_WAIT_MILLIS = 2_000;
+
+    private final PostgreSQLDatabase database;
+    private final String channel;
+    private final Logger logger;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Connection listening; // so close() can drop it if the thread doesn't stop in time, closing twice is a no-op
+
+    /**
+     * @param database
+     * @param channel anything, gets folded to a lowercase identifier. servers sharing caches must use the same one
+     * @param logger
+     */
+    public PostgresInvalidationTransport(PostgreSQLDatabase database, String channel, Logger logger) {
+        this.database = database;
+        this.channel = channel.toLowerCase().replaceAll("[^a-z0-9_]", "_");
+        this.logger = logger;
+        this.thread = Thread.ofPlatform().name("HxCore-Invalidation-" + this.channel).daemon().start(this::run);
+    }
+
+    // a transaction rather than updateAsync since pg_notify is a select, executeUpdate would reject its row.
+    // the notification goes out when it commits
+    @Override
+    public void publish(String message) {
+        database.transactionAsync(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_notify(?, ?)")) {
+                stmt.setString(1, channel);
+                stmt.setString(2, message);
+                stmt.execute();
+            }
+        }).exceptionally(e -> {
+                logger.warning("Failed to publish cache invalidation on " + channel + ": " + e.getMessage());
+                return null;
+            });
+    }
+
+    @Override
+    public Subscription subscribe(Listener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    private void run() {
+        long backoff = 1000;
+        boolean connectedBefore = false;
+
+        while (running) {
+            try (Connection conn = database.openUnpooledConnection()) {
+                listening = conn;
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + channel);
+                }
+
+                if (connectedBefore) {
+                    logger.info("Reconnected cache invalidation listener on " + channel);
+                    listeners.forEach(Listener::onGap);
+                }
+                connectedBefore = true;
+                backoff = 1000;
+
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+
+                    for (PGNotification notification : notifications) {
+                        for (Listener listener : listeners) {
+                            try {
+                                listener.onMessage(notification.getParameter());
+                            } catch (RuntimeException e) {
+                                logger.warning("Cache invalidation listener failed on " + channel + ": " + e.getMessage());
+                            }
+                        }
+                    }
+                }
+
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+
+                logger.warning("Cache invalidation listener on " + channel + " lost its connection, retrying in " + backoff + "ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    // waits for the listener thread so its connection doesn't outlive the database's disconnect.
+    // it notices within one poll, if it hasn't stopped by then its connection is closed from here
+    @Override
+    public void close() {
+        running = false;
+        listeners.clear();
+        thread.interrupt();
+
+        try {
+            thread.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Connection conn = listening;
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                // closing anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongPredicate;
+
+// open addressing table keyed by up to two raw longs, the shared guts of LongKeyCache and
+// UuidKeyCache. keys never get boxed and a hit is a probe plus an optimistic read that only falls
+// back to the read lock if a write raced it, so get allocates nothing.
+//  - split into segments by hash, each with its own StampedLock and fixed size table at <= 50% load
+//  - linear probing, removals shift the run back instead of leaving tombstones
+//  - CLOCK eviction once a segment is at its share of maxSize, expired entries go first
+//  - optional expireAfterWrite, checked on read and swept out by eviction
+
+public abstract class PrimitiveKeyCache<V> {
+
+    private static final int SEGMENTS = 16;
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+
+    private final String name;
+    private final boolean wide;
+    private final int maxSize;
+    private final long ttlNanos; // 0 = no expiry
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    PrimitiveKeyCache(String name, boolean wide, int maxSize, Duration expireAfterWrite) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+
+        this.name = name;
+        this.wide = wide;
+        this.maxSize = maxSize;
+        this.ttlNanos = expireAfterWrite != null ? expireAfterWrite.toNanos() : 0;
+
+        // small caches aren't worth splitting
+        int count = maxSize >= 1024 ? SEGMENTS : 1;
+        @SuppressWarnings("unchecked")
+        Segment[] table = (Segment[]) new PrimitiveKeyCache<?>.Segment[count];
+        this.segments = table;
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+
+        int perSegment = (maxSize + count - 1) / count;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    // ---- subclasses pick the key shape, everything below works on (hi, lo)
+
+    final V lookup(long hi, long lo) {
+        long hash = hash(hi, lo);
+        Segment segment = segmentFor(hash);
+
+        V value;
+        long stamp = segment.lock.tryOptimisticRead();
+        value = segment.find(hi, lo, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                value = segment.find(hi, lo, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    final void store(long hi, long lo, V value) {
+        if (value == null) {
+            throw new NullPointerException("Cache '" + name + "' can't hold null values");
+        }
+
+        long hash = hash(hi, lo);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            segment.put(hi, lo, hash, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    // loads on a miss and caches the result, null results aren't cached. the loader runs outside the
+    // lock so two threads missing the same key at once may both load it
+    final V load(long hi, long lo, Loader<V> loader) {
+        V value = lookup(hi, lo);
+        if (value != null) {
+            return value;
+        }
+
+        long start = System.nanoTime();
+        try {
+            value = loader.load();
+        } catch (RuntimeException e) {
+            loadFailures.increment();
+            loadNanos.add(System.nanoTime() - start);
+            throw e;
+        }
+        loadNanos.add(System.nanoTime() - start);
+
+        if (value == null) {
+            loadFailures.increment();
+            return null;
+        }
+
+        loadSuccesses.increment();
+        store(hi, lo, value);
+        return value;
+    }
+
+    final void remove(long hi, long lo) {
+        long hash = hash(hi, lo);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.slotOf(hi, lo, hash);
+            if (slot >= 0) {
+                segment.removeAt(slot);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    // only for long keyed caches, drops every key the predicate matches
+    final void removeIf(LongPredicate matches) {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                int slot = 0;
+                while (slot < segment.values.length) {
+                    if (segment.values[slot] != null && matches.test(segment.lo[slot])) {
+                        segment.removeAt(slot); // something may have shifted into this slot, look again
+                    } else {
+                        slot++;
+                    }
+                }
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // includes entries that have expired but not been swept yet, same as caffeine's estimatedSize
+    public long estimatedSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    // always recorded, the counters are cheap
+    public CacheStats stats() {
+        return CacheStats.of(hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(),
+            loadNanos.sum(), evictions.sum(), evictions.sum());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaximumSize() {
+        return maxSize;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    static long hash(long hi, long lo) {
+        long h = (lo ^ Long.rotateLeft(hi, 32)) * MIX;
+        return h ^ (h >>> 29);
+    }
+
+    @FunctionalInterface
+    interface Loader<V> {
+        V load();
+    }
+
+    private final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private final long[] hi; // null for narrow (long) keys
+        private final long[] lo;
+        private final Object[] values; // null = empty slot
+        private final long[] written; // null without a ttl
+        private final boolean[] referenced;
+        private final int mask;
+        private final int maxSize;
+        private int size;
+        private int hand;
+
+        private Segment(int maxSize) {
+            int capacity = Math.max(4, Integer.highestOneBit(maxSize * 2 - 1) << 1);
+            this.hi = wide ? new long[capacity] : null;
+            this.lo = new long[capacity];
+            this.values = new Object[capacity];
+            this.written = ttlNanos > 0 ? new long[capacity] : null;
+            this.referenced = new boolean[capacity];
+            this.mask = capacity - 1;
+            this.maxSize = maxSize;
+        }
+
+        // may run without the lock, so every index is masked and the walk is bounded. a torn
+        // read just gives a wrong answer that validate() then throws away
+        @SuppressWarnings("unchecked")
+        private V find(long keyHi, long keyLo, long hash) {
+            int slot = (int) hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                Object value = values[slot];
+                if (value == null) {
+                    return null;
+                }
+                if (lo[slot] == keyLo && (hi == null || hi[slot] == keyHi)) {
+                    if (written != null && System.nanoTime() - written[slot] > ttlNanos) {
+                        return null;
+                    }
+                    referenced[slot] = true; // racy on purpose, it's only a hint for the clock
+                    return (V) value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private int slotOf(long keyHi, long keyLo, long hash) {
+            int slot = (int) hash & mask;
+            while (values[slot] != null) {
+                if (lo[slot] == keyLo && (hi == null || hi[slot] == keyHi)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void put(long keyHi, long keyLo, long hash, Object value) {
+            int existing = slotOf(keyHi, keyLo, hash);
+            if (existing >= 0) {
+                values[existing] = value;
+                if (written != null) {
+                    written[existing] = System.nanoTime();
+                }
+                return;
+            }
+
+            if (size >= maxSize) {
+                evictOne();
+            }
+
+            int slot = (int) hash & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (hi != null) {
+                hi[slot] = keyHi;
+            }
+            lo[slot] = keyLo;
+            values[slot] = value;
+            referenced[slot] = false;
+            if (written != null) {
+                written[slot] = System.nanoTime();
+            }
+            size++;
+        }
+
+        // second chance: walk the hand, clearing referenced bits, until an unreferenced or expired entry turns up
+        private void evictOne() {
+            long now = System.nanoTime();
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) & mask;
+
+                if (values[slot] == null) {
+                    continue;
+                }
+                boolean expired = written != null && now - written[slot] > ttlNanos;
+                if (!expired && referenced[slot]) {
+                    referenced[slot] = false;
+                    continue;
+                }
+
+                removeAt(slot);
+                evictions.increment();
+                return;
+            }
+        }
+
+        // backward shift: pull later entries of the probe run into the gap so lookups never need tombstones
+        private void removeAt(int slot) {
+            int gap = slot;
+            int next = (gap + 1) & mask;
+
+            while (values[next] != null) {
+                int home = (int) hash(hi != null ? hi[next] : 0, lo[next]) & mask;
+
+                // entries whose home is cyclically within (gap, next] are already as close as they can be
+                boolean stays = gap <= next ? (home > gap && home <= next) : (home > gap || home <= next);
+                if (!stays) {
+                    if (hi != null) {
+                        hi[gap] = hi[next];
+                    }
+                    lo[gap] = lo[next];
+                    values[gap] = values[next];
+                    referenced[gap] = referenced[next];
+                    if (written != null) {
+                        written[gap] = written[next];
+                    }
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+
+            values[gap] = null;
+            referenced[gap] = false;
+            size--;
+        }
+
+        private void clear() {
+            Arrays.fill(values, null);
+            Arrays.fill(referenced, false);
+            size = 0;
+            hand = 0;
+        }
+    }
+}
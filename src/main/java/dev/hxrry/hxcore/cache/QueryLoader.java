@@ -0,0 +1,75 @@
+package dev.hxrry.hxcore.cache;
+
+import dev.hxrry.hxcore.database.Database;
+import dev.hxrry.hxcore.database.RowMapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// async loader backed by a table: a single miss is one "WHERE key = ?" and a bulk miss is
+// "WHERE key IN (...)" instead of N round trips. keys with no row just don't come back
+
+public class QueryLoader<K, V> implements CacheManager.AsyncLoader<K, V>, CacheManager.AsyncBulkLoader<K, V> {
+
+    private static final int MAX_KEYS_PER_QUERY = 512;
+
+    private final Database database;
+    private final String select;
+    private final RowMapper<V> mapper;
+    private final Function<V, K> keyOf;
+
+    /**
+     * @param database
+     * @param table
+     * @param keyColumn column the cache key matches
+     * @param mapper e.g. RowMapper.of(PlayerData.class)
+     * @param keyOf pulls the key back out of a loaded value
+     */
+    public QueryLoader(Database database, String table, String keyColumn, RowMapper<V> mapper, Function<V, K> keyOf) {
+        this.database = database;
+        this.select = "SELECT * FROM " + table + " WHERE " + keyColumn;
+        this.mapper = mapper;
+        this.keyOf = keyOf;
+    }
+
+    @Override
+    public CompletableFuture<V> load(K key) {
+        return database.queryAsync(select + " = ?", mapper, key)
+            .thenApply(rows -> rows.isEmpty() ? null : rows.get(0));
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> loadAll(Set<? extends K> keys) {
+        List<K> pending = new ArrayList<>(keys);
+        List<CompletableFuture<List<V>>> queries = new ArrayList<>();
+
+        for (int start = 0; start < pending.size(); start += MAX_KEYS_PER_QUERY) {
+            List<K> chunk = pending.subList(start, Math.min(start + MAX_KEYS_PER_QUERY, pending.size()));
+
+            // pad to a power of two with repeats of the last key so only a few IN templates ever get prepared
+            int width = Integer.highestOneBit(chunk.size() - 1) << 1;
+            width = Math.max(1, Math.min(width, MAX_KEYS_PER_QUERY));
+            Object[] params = new Object[width];
+            for (int i = 0; i < width; i++) {
+                params[i] = chunk.get(Math.min(i, chunk.size() - 1));
+            }
+
+            queries.add(database.queryAsync(select + " IN (" + "?, ".repeat(width - 1) + "?)", mapper, params));
+        }
+
+        return CompletableFuture.allOf(queries.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            Map<K, V> loaded = new HashMap<>(keys.size() * 2);
+            for (CompletableFuture<List<V>> query : queries) {
+                for (V value : query.join()) {
+                    loaded.put(keyOf.apply(value), value);
+                }
+            }
+            return loaded;
+        });
+    }
+}
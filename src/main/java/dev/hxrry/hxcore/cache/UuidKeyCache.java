@@ -0,0 +1,36 @@
+package dev.hxrry.hxcore.cache;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Function;
+
+// cache keyed by a UUID held as its two longs, so lookups never hash or box a UUID object.
+// get one from CacheManager.createUuidCache
+
+public final class UuidKeyCache<V> extends PrimitiveKeyCache<V> {
+
+    UuidKeyCache(String name, int maxSize, Duration expireAfterWrite) {
+        super(name, true, maxSize, expireAfterWrite);
+    }
+
+    public V getIfPresent(UUID key) {
+        return lookup(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    // for callers that already have the halves, e.g. read straight from a database row
+    public V getIfPresent(long mostSigBits, long leastSigBits) {
+        return lookup(mostSigBits, leastSigBits);
+    }
+
+    public V get(UUID key, Function<UUID, V> loader) {
+        return load(key.getMostSignificantBits(), key.getLeastSignificantBits(), () -> loader.apply(key));
+    }
+
+    public void put(UUID key, V value) {
+        store(key.getMostSignificantBits(), key.getLeastSignificantBits(), value);
+    }
+
+    public void invalidate(UUID key) {
+        remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+}
@@ -0,0 +1,178 @@
+package dev.hxrry.hxcore.database;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Supplier;
+
+// caps how much work hits the pool at once. up to maxConcurrent tasks run, up to maxQueued wait for a
+// slot (for at most maxWait), anything past that is rejected or run on the caller depending on policy.
+// a burst then fails fast instead of parking thousands of virtual threads on hikari's 30s timeout
+
+public class AdmissionControl {
+
+    public enum OverloadPolicy {
+        REJECT,      // fail the future straight away
+        CALLER_RUNS  // run it on the submitting thread, slows the producer down
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final OverloadPolicy policy;
+    private final Semaphore permits; // null when unbounded
+
+    // metrics
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final LongAccumulator maxWaitSeenNanos = new LongAccumulator(Math::max, 0);
+
+    public AdmissionControl(int maxConcurrent, int maxQueued, Duration maxWait, OverloadPolicy policy) {
+        if (maxConcurrent < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1 and maxQueued not negative");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.policy = policy;
+        // no limit means nothing to wait for, so skip the semaphore and its fairness queue altogether
+        boolean unbounded = maxConcurrent == Integer.MAX_VALUE && maxQueued == Integer.MAX_VALUE;
+        this.permits = unbounded ? null : new Semaphore(maxConcurrent, true);
+    }
+
+    // no limits, the old behaviour
+    public static AdmissionControl unbounded() {
+        return new AdmissionControl(Integer.MAX_VALUE, Integer.MAX_VALUE, Duration.ofDays(1), OverloadPolicy.REJECT);
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<T> task, Executor executor) {
+        if (permits == null) {
+            long submitted = System.nanoTime();
+            return CompletableFuture.supplyAsync(() -> {
+                recordWait(System.nanoTime() - submitted);
+                return run(task, false);
+            }, executor);
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return overloaded(task);
+        }
+
+        long submitted = System.nanoTime();
+
+        return CompletableFuture.supplyAsync(() -> {
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting for a database slot", e);
+            } finally {
+                queued.decrementAndGet();
+                recordWait(System.nanoTime() - submitted);
+            }
+
+            if (!acquired) {
+                timedOut.incrementAndGet();
+                throw new RejectedExecutionException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + "ms waiting for a database slot");
+            }
+
+            return run(task, true);
+        }, executor);
+    }
+
+    private <T> CompletableFuture<T> overloaded(Supplier<T> task) {
+        if (policy == OverloadPolicy.CALLER_RUNS) {
+            // no slot and no wait, but it still counts as running while it's on the caller
+            callerRuns.incrementAndGet();
+            recordWait(0);
+            try {
+                return CompletableFuture.completedFuture(run(task, false));
+            } catch (Throwable t) {
+                return CompletableFuture.failedFuture(t);
+            }
+        }
+
+        rejected.incrementAndGet();
+        return CompletableFuture.failedFuture(new RejectedExecutionException(
+            "Database overloaded (" + running.get() + " running, " + queued.get() + " queued)"));
+    }
+
+    private <T> T run(Supplier<T> task, boolean holdsPermit) {
+        admitted.incrementAndGet();
+        running.incrementAndGet();
+        try {
+            return task.get();
+        } finally {
+            running.decrementAndGet();
+            if (holdsPermit) {
+                permits.release();
+            }
+        }
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitSeenNanos.accumulate(nanos);
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public OverloadPolicy getPolicy() {
+        return policy;
+    }
+
+    // tasks running right now, caller runs included
+    public int getRunning() {
+        return running.get();
+    }
+
+    // tasks waiting for a slot right now
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    // overloaded tasks run on the submitting thread, also counted in admitted
+    public long getCallerRunsCount() {
+        return callerRuns.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = admitted.get() + timedOut.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitSeenNanos.get() / 1_000_000.0;
+    }
+}
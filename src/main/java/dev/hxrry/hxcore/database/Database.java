@@ -4,21 +4,47 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 public abstract class Database {
 
+    protected static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int MAX_UPSERT_ROWS = 1024;
+    // anything a query could write with, including selects a hot standby refuses: row locks, SELECT INTO,
+    // sequence bumps, advisory locks and NOTIFY. matching inside a string literal just costs a trip to the primary
+    private static final Pattern WRITES = Pattern.compile(
+        "\\b(INSERT|UPDATE|DELETE|REPLACE|MERGE|RETURNING|INTO|FOR\\s+(KEY\\s+)?SHARE"
+            + "|NEXTVAL|SETVAL|PG_NOTIFY|PG_(TRY_)?ADVISORY_\\w*)\\b", Pattern.CASE_INSENSITIVE);
+
     private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<WriteBehindBuffer> writeBuffers = new CopyOnWriteArrayList<>();
+    private final Map<UpsertShape, String> upsertTemplates = new ConcurrentHashMap<>();
+    private volatile AdmissionControl admission = AdmissionControl.unbounded();
+    private volatile StatementCache statements = new StatementCache(0);
+    
+    private record UpsertShape(String table, String keyColumn, List<String> columns, int rows) {}
     
     protected final String name;
     protected final Logger logger;
+    protected final QueryMetrics metrics;
 
     protected Database(String name, Logger logger) {
         this.name = name;
         this.logger = logger;
+        this.metrics = new QueryMetrics(logger);
     }
 
     protected abstract void closeDataSource();
@@ -27,15 +53,54 @@ public abstract class Database {
     
     public abstract Connection getConnection() throws SQLException;
     
+    // connection for queryAsync/streamAsync, may be read-only. only used for plain reads (see isReadOnly),
+    // INSERT ... RETURNING and the like go to getConnection(). backends with separate readers override this
+    protected Connection getReadConnection() throws SQLException {
+        return getConnection();
+    }
+    
+    // called once a write has committed (updates, batches, upserts, transactions), backends that route
+    // reads elsewhere use it to keep this plugin's reads on the primary for a while
+    protected void onWriteCommitted() {
+    }
+    
     public final void disconnect() {
+        // drain buffered writes while the executor and pool are still up
+        for (WriteBehindBuffer buffer : writeBuffers) {
+            buffer.close();
+        }
+        writeBuffers.clear();
+        
         executor.close();
+        
+        // backends drain their own writers (sqlite's write queue) in here, so the statement cache is
+        // only torn down once nothing can be holding a lease any more
         closeDataSource();
-
+        statements.clear();
+    }
+    
+    // buffered, coalescing upserts for hot rows, flushed once maxPending rows are queued or every flushInterval
+    public WriteBehindBuffer createWriteBehind(int maxPending, Duration flushInterval) {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(this, logger, maxPending, flushInterval);
+        writeBuffers.add(buffer);
+        return buffer;
     }
     
     // basically health check implementation atp
     public abstract boolean isConnected();
     
+    // brings this plugin's schema up to date, see MigrationRunner.loadResources for the file layout.
+    // returns how many migrations ran, 0 (and a single select) when already current
+    public int migrate(String scope, List<Migration> migrations) throws SQLException {
+        return new MigrationRunner(this, logger).run(scope, migrations);
+    }
+    
+    // held for the rest of the migration transaction so parallel servers apply each version once
+    // sqlite needs nothing here, the single writer connection already serialises it
+    protected void lockForMigration(Connection conn, String scope) throws SQLException {
+    }
+    
+    // runs the ddl every call, prefer migrate() for anything past a one-off table
     public void createTable(String sql) throws SQLException {
         // try-with-resources ensures connection and statement are closed
         try (Connection conn = getConnection();
@@ -45,82 +110,495 @@ public abstract class Database {
         }
     }
 
+    // statements that write (INSERT ... RETURNING, SELECT ... FOR UPDATE, a data modifying WITH) are
+    // sent to the primary/writer on their own, everything else may go to a reader
     public CompletableFuture<QueryResult> queryAsync(String sql, Object... params) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection conn = getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return query(sql, isReadOnly(sql), params);
+    }
+    
+    // same as queryAsync but skips read replicas/readers, for reads that must see a write that just happened
+    public CompletableFuture<QueryResult> queryPrimaryAsync(String sql, Object... params) {
+        return query(sql, false, params);
+    }
+    
+    private CompletableFuture<QueryResult> query(String sql, boolean read, Object[] params) {
+        QueryMetrics.Timer timer = metrics.start(sql);
+        
+        return supplyAsync(() -> {
+            try (Connection conn = acquire(timer, read);
+                 StatementCache.Lease lease = prepare(conn, sql)) {
+                
+                PreparedStatement stmt = lease.statement();
                 
                 // Set parameters safely (prevents SQL injection)
-                for (int i = 0; i < params.length; i++) {
-                    stmt.setObject(i + 1, params[i]);
-                }
+                setParameters(stmt, params);
                 
                 ResultSet rs = stmt.executeQuery();
                 // Wrap in QueryResult to handle result set safely
-                return new QueryResult(rs);
+                QueryResult result = new QueryResult(rs);
+                if (!read) {
+                    onWriteCommitted();
+                }
+                
+                timer.rows(result.size());
+                timer.finish(true);
+                return result;
                 
             } catch (SQLException e) {
+                timer.finish(false);
                 logger.severe("Query failed: " + sql);
                 throw new RuntimeException(e);
             }
-        }, executor);
+        });
     }
     
-    public CompletableFuture<Integer> updateAsync(String sql, Object... params) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection conn = getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+    // maps each row straight from the result set, see RowMapper.of for records. routed like queryAsync
+    public <T> CompletableFuture<List<T>> queryAsync(String sql, RowMapper<T> mapper, Object... params) {
+        QueryMetrics.Timer timer = metrics.start(sql);
+        boolean read = isReadOnly(sql);
+        
+        return supplyAsync(() -> {
+            try (Connection conn = acquire(timer, read);
+                 StatementCache.Lease lease = prepare(conn, sql)) {
                 
-                // set parameters safely
-                for (int i = 0; i < params.length; i++) {
-                    stmt.setObject(i + 1, params[i]);
+                PreparedStatement stmt = lease.statement();
+                setParameters(stmt, params);
+                
+                List<T> results = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    RowMapper<T> bound = mapper.bind(rs);
+                    while (rs.next()) {
+                        results.add(bound.map(rs));
+                    }
+                }
+                if (!read) {
+                    onWriteCommitted();
                 }
                 
-                return stmt.executeUpdate();
+                timer.rows(results.size());
+                timer.finish(true);
+                return results;
                 
             } catch (SQLException e) {
-                logger.severe("Update failed: " + sql);
+                timer.finish(false);
+                logger.severe("Query failed: " + sql);
                 throw new RuntimeException(e);
             }
-        }, executor);
+        });
     }
     
-    public CompletableFuture<Void> transactionAsync(TransactionCallback callback) {
-        return CompletableFuture.runAsync(() -> {
-            Connection conn = null;
-            try {
-                conn = getConnection();
-                conn.setAutoCommit(false); // start transaction
-                
-                callback.execute(conn);
+    // streams rows off a cursor instead of materialising a QueryResult, so memory stays flat on big scans
+    // the handler runs on the db thread while the connection is held and the next batch is only
+    // fetched once it returns, which is the backpressure. return false from the handler to stop early
+    // execute time in the metrics includes the time spent in the handler
+    public CompletableFuture<Long> streamAsync(String sql, int fetchSize, RowHandler handler, Object... params) {
+        QueryMetrics.Timer timer = metrics.start(sql);
+        
+        boolean read = isReadOnly(sql);
+        
+        return supplyAsync(() -> {
+            try (Connection conn = acquire(timer, read)) {
+                boolean autoCommit = conn.getAutoCommit();
+                Exception failure = null;
                 
-                conn.commit(); // if all successful, commit
+                // postgres only honours the fetch size inside a transaction, otherwise it buffers the lot
+                conn.setAutoCommit(false);
                 
-            } catch (Exception e) {
-                if (conn != null) {
+                try (PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    stmt.setFetchSize(fetchSize);
+                    setParameters(stmt, params);
+                    
+                    long count = 0;
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            count++;
+                            if (!handler.handle(rs)) {
+                                break;
+                            }
+                        }
+                    }
+                    
+                    conn.commit();
+                    if (!read) {
+                        onWriteCommitted();
+                    }
+                    
+                    timer.rows(count);
+                    timer.finish(true);
+                    return count;
+                    
+                } catch (SQLException | RuntimeException e) {
+                    // restoring autocommit commits whatever is open, a failed stream of a writing
+                    // statement mustn't keep its partial work. a broken connection failing the rollback
+                    // too mustn't hide why the stream failed
+                    failure = e;
                     try {
-                        conn.rollback(); // error occurred, rollback everything
-                        logger.warning("transaction rolled back due to error");
-                    } catch (SQLException ex) {
-                        logger.severe("failed to rollback transaction");
+                        conn.rollback();
+                    } catch (SQLException rollbackError) {
+                        e.addSuppressed(rollbackError);
+                    }
+                    throw e;
+                } finally {
+                    try {
+                        conn.setAutoCommit(autoCommit);
+                    } catch (SQLException restoreError) {
+                        if (failure != null) {
+                            failure.addSuppressed(restoreError);
+                        } else {
+                            // already committed, the pool resets the connection on return anyway
+                            logger.warning("Couldn't restore autocommit after stream: " + restoreError.getMessage());
+                        }
                     }
                 }
+                
+            } catch (SQLException e) {
+                timer.finish(false);
+                logger.severe("Stream failed: " + sql);
                 throw new RuntimeException(e);
-            } finally {
-                if (conn != null) {
-                    try {
-                        conn.setAutoCommit(true);
-                        conn.close();
-                    } catch (SQLException e) {
-                        // ignore
+            } catch (RuntimeException e) {
+                // usually a handler that threw, it still counts as a failed stream
+                timer.finish(false);
+                logger.severe("Stream failed: " + sql);
+                throw e;
+            }
+        });
+    }
+    
+    public CompletableFuture<Integer> updateAsync(String sql, Object... params) {
+        QueryMetrics.Timer timer = metrics.start(sql);
+        
+        return supplyAsync(() -> {
+            try (Connection conn = acquire(timer, false);
+                 StatementCache.Lease lease = prepare(conn, sql)) {
+                
+                PreparedStatement stmt = lease.statement();
+                
+                // set parameters safely
+                setParameters(stmt, params);
+                
+                int updated = stmt.executeUpdate();
+                onWriteCommitted();
+                
+                timer.rows(updated);
+                timer.finish(true);
+                return updated;
+                
+            } catch (SQLException e) {
+                timer.finish(false);
+                logger.severe("Update failed: " + sql);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+    
+    // bulk insert/update in one transaction, executeBatch every chunkSize rows
+    // rows are pulled lazily on the db thread so a streaming Iterable never has to fit in memory
+    // returns one update count per row (postgres rewritten batches report Statement.SUCCESS_NO_INFO)
+    public CompletableFuture<int[]> batchAsync(String sql, Iterable<Object[]> rows) {
+        return batchAsync(sql, rows, DEFAULT_BATCH_SIZE);
+    }
+    
+    public CompletableFuture<int[]> batchAsync(String sql, Iterable<Object[]> rows, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        
+        QueryMetrics.Timer timer = metrics.start(sql);
+        
+        return supplyAsync(() -> inTransaction(timer, "Batch failed: " + sql, conn -> {
+            int[] counts = new int[16];
+            int total = 0;
+            
+            try (StatementCache.Lease lease = prepare(conn, sql)) {
+                PreparedStatement stmt = lease.statement();
+                int pending = 0;
+                
+                for (Object[] row : rows) {
+                    setParameters(stmt, row);
+                    stmt.addBatch();
+                    
+                    if (++pending == chunkSize) {
+                        int[] chunk = stmt.executeBatch();
+                        counts = append(counts, total, chunk);
+                        total += chunk.length;
+                        pending = 0;
                     }
                 }
+                
+                if (pending > 0) {
+                    int[] chunk = stmt.executeBatch();
+                    counts = append(counts, total, chunk);
+                    total += chunk.length;
+                }
             }
-        }, executor);
+            
+            timer.rows(total);
+            return Arrays.copyOf(counts, total);
+        }));
+    }
+    
+    private static int[] append(int[] counts, int size, int[] chunk) {
+        if (size + chunk.length > counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, size + chunk.length));
+        }
+        System.arraycopy(chunk, 0, counts, size, chunk.length);
+        return counts;
+    }
+    
+    public CompletableFuture<Void> upsertAsync(String table, String keyColumn, Object keyValue, Object... columnValuePairs) {
+        // upsert helper, ON CONFLICT is native on both backends
+        List<String> columns = new ArrayList<>(columnValuePairs.length / 2);
+        Object[] params = new Object[columnValuePairs.length / 2 + 1];
+        params[0] = keyValue;
+        
+        for (int i = 0, j = 1; i < columnValuePairs.length; i += 2, j++) {
+            columns.add((String) columnValuePairs[i]);
+            params[j] = columnValuePairs[i + 1];
+        }
+        
+        return updateAsync(upsertSql(table, keyColumn, columns, 1), params).thenApply(rows -> null);
+    }
+    
+    // multi-row upsert, each row is the key followed by the values in columns order
+    // rows go out as multi-row VALUES in chunks sized to stay under the driver's parameter limit,
+    // returns the total rows affected
+    public CompletableFuture<Integer> upsertManyAsync(String table, String keyColumn, List<String> columns, List<Object[]> rows) {
+        int width = columns.size() + 1;
+        
+        // power of two chunks so only a handful of templates ever exist per shape
+        int maxRows = Integer.highestOneBit(Math.max(1, Math.min(maxParameters() / width, MAX_UPSERT_ROWS)));
+        QueryMetrics.Timer timer = metrics.start("upsertMany " + table + " " + columns);
+        
+        return supplyAsync(() -> {
+            // last write wins on repeated keys, postgres won't touch one row twice in a statement
+            Map<Object, Object[]> unique = new LinkedHashMap<>();
+            for (Object[] row : rows) {
+                if (row.length != width) {
+                    throw new IllegalArgumentException("Expected " + width + " values per row but got " + row.length);
+                }
+                unique.put(row[0], row);
+            }
+            List<Object[]> deduped = new ArrayList<>(unique.values());
+            
+            return inTransaction(timer, "Upsert failed: " + table, conn -> {
+                int affected = 0;
+                int offset = 0;
+                
+                while (offset < deduped.size()) {
+                    int remaining = deduped.size() - offset;
+                    int chunk = remaining >= maxRows ? maxRows : Integer.highestOneBit(remaining);
+                    
+                    try (StatementCache.Lease lease = prepare(conn, upsertSql(table, keyColumn, columns, chunk))) {
+                        PreparedStatement stmt = lease.statement();
+                        int index = 1;
+                        for (int r = offset; r < offset + chunk; r++) {
+                            for (Object value : deduped.get(r)) {
+                                stmt.setObject(index++, value);
+                            }
+                        }
+                        affected += stmt.executeUpdate();
+                    }
+                    
+                    offset += chunk;
+                }
+                
+                timer.rows(affected);
+                return affected;
+            });
+        });
+    }
+    
+    // cached per shape so hot paths never rebuild the sql
+    protected final String upsertSql(String table, String keyColumn, List<String> columns, int rows) {
+        return upsertTemplates.computeIfAbsent(new UpsertShape(table, keyColumn, List.copyOf(columns), rows),
+            shape -> buildUpsertSql(shape.table(), shape.keyColumn(), shape.columns(), shape.rows()));
+    }
+    
+    // ON CONFLICT works on postgres and sqlite 3.24+, dialects override if theirs differs
+    protected String buildUpsertSql(String table, String keyColumn, List<String> columns, int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (").append(keyColumn);
+        for (String column : columns) {
+            sql.append(", ").append(column);
+        }
+        sql.append(") VALUES ");
+        
+        String tuple = "(?" + ", ?".repeat(columns.size()) + ")";
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) {
+                sql.append(", ");
+            }
+            sql.append(tuple);
+        }
+        
+        sql.append(" ON CONFLICT (").append(keyColumn).append(") ");
+        if (columns.isEmpty()) {
+            return sql.append("DO NOTHING").toString();
+        }
+        
+        sql.append("DO UPDATE SET ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns.get(i)).append(" = EXCLUDED.").append(columns.get(i));
+        }
+        return sql.toString();
+    }
+    
+    // most bind parameters one statement may carry
+    protected int maxParameters() {
+        return 999;
+    }
+    
+    public CompletableFuture<Void> transactionAsync(TransactionCallback callback) {
+        QueryMetrics.Timer timer = metrics.start("transaction");
+        
+        return supplyAsync(() -> inTransaction(timer, null, conn -> {
+            callback.execute(conn);
+            return null;
+        }));
+    }
+    
+    // shared commit/rollback handling, runs on the calling thread
+    private <T> T inTransaction(QueryMetrics.Timer timer, String failure, TransactionWork<T> work) {
+        Connection conn = null;
+        try {
+            conn = acquire(timer, false);
+            conn.setAutoCommit(false); // start transaction
+            
+            T result = work.execute(conn);
+            
+            conn.commit(); // if all successful, commit
+            onWriteCommitted();
+            timer.finish(true);
+            return result;
+            
+        } catch (Exception e) {
+            timer.finish(false);
+            if (conn != null) {
+                try {
+                    conn.rollback(); // error occurred, rollback everything
+                    logger.warning("transaction rolled back due to error");
+                } catch (SQLException ex) {
+                    logger.severe("failed to rollback transaction");
+                }
+            }
+            if (failure != null) {
+                logger.severe(failure);
+            }
+            throw e instanceof RuntimeException re ? re : new RuntimeException(e);
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+    
+    // statements are reused per connection when the cache is on, close the lease to hand it back
+    StatementCache.Lease prepare(Connection conn, String sql) throws SQLException {
+        return statements.prepare(conn, sql);
+    }
+    
+    // prepared statements kept per pooled connection, 0 turns caching off
+    // set before traffic starts, swapping drops every cached statement
+    public void setStatementCacheSize(int size) {
+        StatementCache old = statements;
+        statements = new StatementCache(size);
+        old.clear();
+    }
+    
+    public int getCachedStatementCount() {
+        return statements.size();
+    }
+    
+    // whether a query can run on a read-only reader: a plain SELECT/WITH/VALUES/TABLE that mentions
+    // nothing that writes. anything else (pragmas included) stays on the primary/writer
+    static boolean isReadOnly(String sql) {
+        int i = 0;
+        int length = sql.length();
+        
+        // leading whitespace, comments and parens before the first keyword
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c) || c == '(') {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else {
+                break;
+            }
+        }
+        
+        int start = i;
+        while (i < length && Character.isLetter(sql.charAt(i))) {
+            i++;
+        }
+        
+        String keyword = sql.substring(start, i);
+        boolean reads = keyword.equalsIgnoreCase("SELECT") || keyword.equalsIgnoreCase("WITH")
+            || keyword.equalsIgnoreCase("VALUES") || keyword.equalsIgnoreCase("TABLE");
+        return reads && !WRITES.matcher(sql).find();
+    }
+    
+    // stamps the timer either side of getting a connection so pool waits show up on their own
+    protected Connection acquire(QueryMetrics.Timer timer, boolean read) throws SQLException {
+        timer.started();
+        Connection conn = read ? getReadConnection() : getConnection();
+        timer.acquired();
+        return conn;
+    }
+    
+    // everything async goes through here so it all lands on the same executor behind admission control
+    protected <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        return admission.submit(task, executor);
+    }
+    
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+    
+    // swap before traffic starts, tasks already queued keep the old limits
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+    
+    // connections the backend can hand out at once, used to size admission control
+    public abstract int getPoolSize();
+    
+    public abstract PoolStats getPoolStats();
+    
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+    
+    protected static void setParameters(PreparedStatement stmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
     }
     
     @FunctionalInterface
     public interface TransactionCallback {
         void execute(Connection connection) throws SQLException;
     }
+    
+    @FunctionalInterface
+    private interface TransactionWork<T> {
+        T execute(Connection connection) throws Exception;
+    }
+    
+    // called once per row with the cursor positioned on it - don't call next() or hold onto it
+    @FunctionalInterface
+    public interface RowHandler {
+        boolean handle(ResultSet row) throws SQLException;
+    }
 }
\ No newline at end of file
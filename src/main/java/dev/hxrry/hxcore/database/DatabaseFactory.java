@@ -5,12 +5,21 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 // factory class creates the right db based off the config choices. the ONLY class plugins interact with for db's
 
 public class DatabaseFactory {
 
+    private static final Executor CONNECT_EXECUTOR = task -> Thread.ofVirtual().name("HxCore-connect").start(task);
+
     public static Database create(JavaPlugin plugin, String databaseName) {
         Logger logger = plugin.getLogger();
         ConfigurationSection config = plugin.getConfig().getConfigurationSection("database");
@@ -23,24 +32,77 @@ public class DatabaseFactory {
         
         String type = config.getString("type", "AUTO").toUpperCase();
         
-        return switch (type) {
-            case "SQLITE" -> createSQLite(plugin.getDataFolder(), databaseName, logger);
+        Database database = switch (type) {
+            case "SQLITE" -> createSQLite(plugin.getDataFolder(), databaseName, config, logger);
             case "POSTGRESQL" -> createPostgreSQL(config.getConfigurationSection("postgresql"), logger);
             case "AUTO" -> createAuto(plugin, databaseName, config, logger);
             default -> {
                 logger.warning("Unknown database type: " + type + ", defaulting to SQLite");
-                yield createSQLite(plugin.getDataFolder(), databaseName, logger);
+                yield createSQLite(plugin.getDataFolder(), databaseName, config, logger);
             }
         };
+        
+        configureAdmission(database, config.getConfigurationSection("admission"), logger);
+        configureMetrics(database, config.getConfigurationSection("metrics"));
+        
+        // postgres caches server side through the driver already, sqlite defaults to 64
+        if (config.contains("statement-cache-size")) {
+            database.setStatementCacheSize(config.getInt("statement-cache-size", 0));
+        }
+        return database;
+    }
+    
+    // query timings are on by default, the slow query log only once a threshold is set
+    private static void configureMetrics(Database database, ConfigurationSection config) {
+        if (config == null) {
+            return;
+        }
+        
+        database.getMetrics().setEnabled(config.getBoolean("enabled", true));
+        database.getMetrics().setSlowQueryThreshold(Duration.ofMillis(config.getLong("slow-query-ms", 0)));
+    }
+    
+    // bounded concurrency in front of the pool, off unless configured
+    private static void configureAdmission(Database database, ConfigurationSection config, Logger logger) {
+        if (config == null || !config.getBoolean("enabled", true)) {
+            return;
+        }
+        
+        int maxConcurrent = config.getInt("max-concurrent", database.getPoolSize());
+        int maxQueued = config.getInt("max-queued", 1000);
+        long maxWaitMs = config.getLong("max-wait-ms", 5000);
+        
+        AdmissionControl.OverloadPolicy policy;
+        try {
+            policy = AdmissionControl.OverloadPolicy.valueOf(config.getString("policy", "REJECT").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warning("Unknown admission policy: " + config.getString("policy") + ", defaulting to REJECT");
+            policy = AdmissionControl.OverloadPolicy.REJECT;
+        }
+        
+        database.setAdmissionControl(new AdmissionControl(maxConcurrent, maxQueued, Duration.ofMillis(maxWaitMs), policy));
+        logger.info("Database admission control: " + maxConcurrent + " concurrent, " + maxQueued + " queued, " + policy);
     }
     
     // default sqlite
-    private static Database createSQLite(File dataFolder, String name, Logger logger) {
-        logger.info("Using SQLite database: " + name + ".db");
-        return new SQLiteDatabase(dataFolder, name, logger);
+    private static Database createSQLite(File dataFolder, String name, ConfigurationSection config, Logger logger) {
+        int readPoolSize = config.getInt("sqlite.read-pool-size", 4);
+        boolean groupCommit = config.getBoolean("sqlite.group-commit", false);
+        
+        logger.info("Using SQLite database: " + name + ".db" + (groupCommit ? " (group commit)" : ""));
+        SQLiteDatabase database = new SQLiteDatabase(dataFolder, name, readPoolSize, groupCommit, logger);
+        
+        ConfigurationSection maintenance = config.getConfigurationSection("sqlite.maintenance");
+        if (maintenance != null) {
+            database.setMaintenance(
+                Duration.ofMinutes(maintenance.getLong("checkpoint-minutes", 5)),
+                Duration.ofMinutes(maintenance.getLong("optimize-minutes", 60)),
+                maintenance.getDouble("vacuum-threshold", 0.3));
+        }
+        return database;
     }
 
-    private static Database createPostgreSQL(ConfigurationSection config, Logger logger) {
+    private static PostgreSQLDatabase createPostgreSQL(ConfigurationSection config, Logger logger) {
         if (config == null) {
             throw new IllegalStateException("PostgreSQL selected but not setup in config, please amend");
         }
@@ -52,6 +114,7 @@ public class DatabaseFactory {
         String username = config.getString("username", "postgres");
         String password = config.getString("password", "");
         int maxPoolSize = config.getInt("max-pool-size", 10);
+        boolean sharedPool = config.getBoolean("shared-pool", false);
         
         // validate
         if (password.isEmpty()) {
@@ -60,7 +123,21 @@ public class DatabaseFactory {
         
         logger.info("Using PostgreSQL database: " + username + "@" + host + ":" + port + "/" + database);
         
-        return new PostgreSQLDatabase(host, port, database, username, password, maxPoolSize, logger);
+        PostgreSQLDatabase postgres = new PostgreSQLDatabase(host, port, database, username, password, maxPoolSize, sharedPool, logger);
+        
+        List<String> replicas = config.getStringList("replicas");
+        if (!replicas.isEmpty()) {
+            String routing = config.getString("replica-routing", "round-robin").toUpperCase().replace('-', '_');
+            
+            try {
+                postgres.setReplicas(replicas, PostgreSQLDatabase.ReplicaRouting.valueOf(routing));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Unknown replica-routing: " + routing + ", using round-robin");
+                postgres.setReplicas(replicas, PostgreSQLDatabase.ReplicaRouting.ROUND_ROBIN);
+            }
+            postgres.setReadYourWrites(Duration.ofMillis(config.getLong("read-your-writes-ms", 0)));
+        }
+        return postgres;
     }
     
     // auto mode implementation
@@ -70,9 +147,12 @@ public class DatabaseFactory {
         // try postgresql first if configured
         ConfigurationSection pgConfig = config.getConfigurationSection("postgresql");
         if (pgConfig != null && pgConfig.contains("password")) {
-            Database postgres = createPostgreSQL(pgConfig, logger);
+            PostgreSQLDatabase postgres = createPostgreSQL(pgConfig, logger);
             if (postgres != null) {
                 try {
+                    // quick probe first so a dead host costs seconds, not the pool's 30s timeout
+                    postgres.probe(Duration.ofMillis(config.getLong("auto-probe-timeout-ms", 3000)));
+                    
                     // test connection
                     postgres.connect();
                     logger.info("AUTO mode: Using PostgreSQL (connection successful)");
@@ -87,7 +167,47 @@ public class DatabaseFactory {
         
         // sqlite fallback
         logger.info("AUTO mode: Using SQLite (default)");
-        return createSQLite(plugin.getDataFolder(), databaseName, logger);
+        return createSQLite(plugin.getDataFolder(), databaseName, config, logger);
+    }
+    
+    // non-blocking connect, retries back off exponentially (full jitter, capped at maxDelayMs) on a
+    // timer instead of sleeping a thread. fails with the last error once maxRetries is used up
+    public static CompletableFuture<Void> connectWithRetryAsync(Database database, int maxRetries, long initialDelayMs, long maxDelayMs) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        attemptConnect(database, 1, maxRetries, initialDelayMs, maxDelayMs, result);
+        return result;
+    }
+    
+    private static void attemptConnect(Database database, int attempt, int maxRetries, long initialDelayMs, long maxDelayMs, CompletableFuture<Void> result) {
+        Logger logger = Logger.getLogger("DatabaseFactory");
+        
+        CompletableFuture.runAsync(() -> {
+            try {
+                database.connect();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, CONNECT_EXECUTOR).whenComplete((v, error) -> {
+            if (error == null) {
+                result.complete(null);
+                return;
+            }
+            
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (attempt >= maxRetries) {
+                logger.severe("Failed to connect after " + maxRetries + " attempts: " + cause.getMessage());
+                result.completeExceptionally(cause);
+                return;
+            }
+            
+            long backoff = Math.min(maxDelayMs, initialDelayMs << Math.min(attempt - 1, 20));
+            // full jitter, so plugins that failed together don't all retry together
+            long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+            logger.warning("Connection attempt " + attempt + " failed, retrying in " + delay + "ms: " + cause.getMessage());
+            
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, CONNECT_EXECUTOR)
+                .execute(() -> attemptConnect(database, attempt + 1, maxRetries, initialDelayMs, maxDelayMs, result));
+        });
     }
     
     //docker related optimisations ?
@@ -0,0 +1,89 @@
+package dev.hxrry.hxcore.database;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// runs flushes one after another so an older snapshot can never commit over a newer one, optionally
+// ticked off a private timer thread. WriteBehindBuffer and CachedRepository both sit on one
+
+public final class FlushChain {
+
+    private final String name;
+    private final Logger logger;
+    private final Object lock = new Object();
+    private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+    private ScheduledExecutorService timer; // only once scheduled
+
+    public FlushChain(String name, Logger logger) {
+        this.name = name;
+        this.logger = logger;
+    }
+
+    // tick runs every interval on a daemon thread of its own. call it after the owner's fields are set,
+    // scheduling is what makes them visible to the timer thread
+    public synchronized void schedule(Duration interval, Runnable tick) {
+        if (timer != null) {
+            throw new IllegalStateException(name + " is already scheduled");
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name(name).daemon().factory());
+        long period = interval.toMillis();
+        timer.scheduleAtFixedRate(() -> {
+            // an exception would cancel the schedule and nothing would flush until close
+            try {
+                tick.run();
+            } catch (RuntimeException e) {
+                logger.warning("Scheduled flush on " + name + " failed: " + e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // starts once everything queued before it has finished, whether that worked or not. a step that
+    // has to clean up after a failure should do it inside its own future so the next one sees the result
+    public <T> CompletableFuture<T> then(Supplier<CompletableFuture<T>> step) {
+        CompletableFuture<T> next = new CompletableFuture<>();
+        CompletableFuture<Void> previous;
+        synchronized (lock) {
+            previous = last;
+            last = next.thenApply(v -> null);
+        }
+
+        // composed outside the lock, a step that starts straight away runs on this thread and may queue
+        // another step itself, which has to land behind this one
+        previous
+            .handle((v, e) -> null)
+            .thenCompose(v -> step.get())
+            .whenComplete((result, e) -> {
+                if (e == null) {
+                    next.complete(result);
+                } else {
+                    next.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                }
+            });
+        return next;
+    }
+
+    // the most recently queued step, failed if that one failed
+    public CompletableFuture<Void> last() {
+        synchronized (lock) {
+            return last;
+        }
+    }
+
+    public boolean isIdle() {
+        return last().isDone();
+    }
+
+    // steps already queued still run
+    public synchronized void stopTimer() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+}
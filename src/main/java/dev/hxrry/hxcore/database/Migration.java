@@ -0,0 +1,16 @@
+package dev.hxrry.hxcore.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+// one versioned schema change, usually loaded from V<version>__<description>.sql by MigrationRunner
+
+public record Migration(int version, String description, String sql) {
+
+    // stored with the applied version so an edited script is caught instead of silently skipped
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(sql.replace("\r\n", "\n").strip().getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
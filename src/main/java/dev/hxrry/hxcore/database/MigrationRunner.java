@@ -0,0 +1,332 @@
+package dev.hxrry.hxcore.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// versioned schema migrations tracked in a schema_version table, scoped per plugin so several can share
+// one postgres database. each migration runs in its own transaction under the backend's migration lock,
+// so two servers booting at once can't both apply it. when nothing is pending the whole thing is one select
+
+public class MigrationRunner {
+
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    private static final String CREATE_TABLE =
+        "CREATE TABLE IF NOT EXISTS schema_version (" +
+        "scope VARCHAR(64) NOT NULL, " +
+        "version INTEGER NOT NULL, " +
+        "description VARCHAR(200) NOT NULL, " +
+        "checksum BIGINT NOT NULL, " +
+        "applied_at BIGINT NOT NULL, " +
+        "PRIMARY KEY (scope, version))";
+
+    private final Database database;
+    private final Logger logger;
+
+    MigrationRunner(Database database, Logger logger) {
+        this.database = database;
+        this.logger = logger;
+    }
+
+    // reads V<version>__<description>.sql files from a directory in the jar (or classes folder) owner was loaded from
+    // statements in a file are split on ; unless its first line is "-- hx:no-split" (see splitStatements)
+    public static List<Migration> loadResources(Class<?> owner, String directory) throws IOException {
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        List<Migration> migrations = new ArrayList<>();
+
+        CodeSource source = owner.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            throw new IOException("Can't locate the jar for " + owner.getName());
+        }
+
+        Path location;
+        try {
+            location = Path.of(source.getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad code source for " + owner.getName(), e);
+        }
+
+        if (Files.isDirectory(location)) {
+            Path folder = location.resolve(prefix);
+            if (Files.isDirectory(folder)) {
+                try (Stream<Path> files = Files.list(folder)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        addMigration(migrations, file.getFileName().toString(), Files.readString(file, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        } else {
+            try (JarFile jar = new JarFile(location.toFile())) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    String name = entry.getName();
+
+                    if (entry.isDirectory() || !name.startsWith(prefix) || name.indexOf('/', prefix.length()) >= 0) {
+                        continue;
+                    }
+
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        addMigration(migrations, name.substring(prefix.length()), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+
+        migrations.sort(Comparator.comparingInt(Migration::version));
+        return migrations;
+    }
+
+    private static void addMigration(List<Migration> migrations, String fileName, String sql) {
+        Matcher matcher = FILE_NAME.matcher(fileName);
+        if (matcher.matches()) {
+            migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2).replace('_', ' '), sql));
+        }
+    }
+
+    // applies whatever is pending, returns how many ran
+    int run(String scope, List<Migration> migrations) throws SQLException {
+        List<Migration> sorted = new ArrayList<>(migrations);
+        sorted.sort(Comparator.comparingInt(Migration::version));
+
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).version() == sorted.get(i - 1).version()) {
+                throw new IllegalArgumentException("Duplicate migration version " + sorted.get(i).version() + " for " + scope);
+            }
+        }
+
+        try (Connection conn = database.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(CREATE_TABLE);
+            }
+
+            // fast path, one select and we're done when everything is applied
+            List<Migration> pending = pending(conn, scope, sorted);
+            if (pending.isEmpty()) {
+                logger.info("Schema for " + scope + " is up to date (v" + latest(sorted) + ")");
+                return 0;
+            }
+
+            int applied = 0;
+            for (Migration migration : pending) {
+                if (apply(conn, scope, migration)) {
+                    applied++;
+                }
+            }
+
+            logger.info("Applied " + applied + " migration(s) to " + scope + ", now at v" + latest(sorted));
+            return applied;
+        }
+    }
+
+    private List<Migration> pending(Connection conn, String scope, List<Migration> migrations) throws SQLException {
+        Map<Integer, Long> applied = applied(conn, scope);
+        List<Migration> pending = new ArrayList<>();
+
+        for (Migration migration : migrations) {
+            Long checksum = applied.get(migration.version());
+            if (checksum == null) {
+                pending.add(migration);
+            } else if (checksum != migration.checksum()) {
+                throw new IllegalStateException("Migration V" + migration.version() + " for " + scope +
+                    " was changed after it was applied, add a new migration instead of editing it");
+            }
+        }
+
+        return pending;
+    }
+
+    private Map<Integer, Long> applied(Connection conn, String scope) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT version, checksum FROM schema_version WHERE scope = ?")) {
+            stmt.setString(1, scope);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    applied.put(rs.getInt(1), rs.getLong(2));
+                }
+            }
+        }
+
+        return applied;
+    }
+
+    private boolean apply(Connection conn, String scope, Migration migration) throws SQLException {
+        conn.setAutoCommit(false);
+
+        try {
+            database.lockForMigration(conn, scope);
+
+            // someone else may have got here first while we waited on the lock
+            if (applied(conn, scope).containsKey(migration.version())) {
+                conn.rollback();
+                return false;
+            }
+
+            try (Statement stmt = conn.createStatement()) {
+                for (String statement : splitStatements(migration.sql())) {
+                    stmt.execute(statement);
+                }
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO schema_version (scope, version, description, checksum, applied_at) VALUES (?, ?, ?, ?, ?)")) {
+                stmt.setString(1, scope);
+                stmt.setInt(2, migration.version());
+                stmt.setString(3, migration.description());
+                stmt.setLong(4, migration.checksum());
+                stmt.setLong(5, System.currentTimeMillis());
+                stmt.executeUpdate();
+            }
+
+            conn.commit();
+            logger.info("Applied migration V" + migration.version() + " (" + migration.description() + ") to " + scope);
+            return true;
+
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            logger.severe("Migration V" + migration.version() + " for " + scope + " failed and was rolled back: " + e.getMessage());
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static int latest(List<Migration> migrations) {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version();
+    }
+
+    // files starting with this line run as one statement, for trigger bodies (BEGIN ... END) and the like
+    static final String NO_SPLIT = "-- hx:no-split";
+
+    // splits on ; outside quotes, $tag$ dollar quotes and comments (-- and nested /* */)
+    static List<String> splitStatements(String script) {
+        if (script.stripLeading().startsWith(NO_SPLIT)) {
+            return List.of(script.strip());
+        }
+
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inString = false;
+        boolean inIdentifier = false;
+        int length = script.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = script.charAt(i);
+            boolean quoted = inString || inIdentifier;
+
+            if (!quoted && c == '-' && i + 1 < length && script.charAt(i + 1) == '-') {
+                // line comment, skip to end of line
+                while (i < length && script.charAt(i) != '\n') {
+                    i++;
+                }
+                current.append('\n');
+                continue;
+            }
+
+            if (!quoted && c == '/' && i + 1 < length && script.charAt(i + 1) == '*') {
+                // block comment, postgres lets these nest
+                int depth = 0;
+                while (i < length) {
+                    if (script.startsWith("/*", i)) {
+                        depth++;
+                        i += 2;
+                    } else if (script.startsWith("*/", i)) {
+                        depth--;
+                        i += 2;
+                        if (depth == 0) {
+                            break;
+                        }
+                    } else {
+                        i++;
+                    }
+                }
+                i--;
+                current.append(' ');
+                continue;
+            }
+
+            if (!quoted && c == '$') {
+                String tag = dollarTag(script, i);
+                if (tag != null) {
+                    // function bodies and the like, copied as is up to the matching tag
+                    int close = script.indexOf(tag, i + tag.length());
+                    int end = close < 0 ? length : close + tag.length();
+                    current.append(script, i, end);
+                    i = end - 1;
+                    continue;
+                }
+            }
+
+            if (c == '\'' && !inIdentifier) {
+                inString = !inString;
+            } else if (c == '"' && !inString) {
+                inIdentifier = !inIdentifier;
+            }
+
+            if (c == ';' && !inString && !inIdentifier) {
+                addStatement(statements, current);
+                continue;
+            }
+
+            current.append(c);
+        }
+
+        addStatement(statements, current);
+        return statements;
+    }
+
+    // $$ or $tag$ opening at i, null for anything else ($1 parameters, a $ inside an identifier)
+    private static String dollarTag(String script, int i) {
+        if (i > 0) {
+            char before = script.charAt(i - 1);
+            if (Character.isLetterOrDigit(before) || before == '_' || before == '$') {
+                return null;
+            }
+        }
+
+        int j = i + 1;
+        while (j < script.length()) {
+            char c = script.charAt(j);
+            if (c == '$') {
+                return script.substring(i, j + 1);
+            }
+            boolean valid = Character.isLetter(c) || c == '_' || (j > i + 1 && Character.isDigit(c));
+            if (!valid) {
+                return null;
+            }
+            j++;
+        }
+        return null;
+    }
+
+    private static void addStatement(List<String> statements, StringBuilder current) {
+        String statement = current.toString().strip();
+        if (!statement.isEmpty()) {
+            statements.add(statement);
+        }
+        current.setLength(0);
+    }
+}
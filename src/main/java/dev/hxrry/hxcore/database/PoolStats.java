@@ -0,0 +1,29 @@
+package dev.hxrry.hxcore.database;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+// point in time view of a connection pool, pending = threads waiting on getConnection
+
+public record PoolStats(int active, int idle, int total, int pending) {
+
+    public static final PoolStats EMPTY = new PoolStats(0, 0, 0, 0);
+
+    public static PoolStats of(HikariDataSource dataSource) {
+        if (dataSource == null || dataSource.isClosed()) {
+            return EMPTY;
+        }
+
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) {
+            return EMPTY;
+        }
+
+        return new PoolStats(pool.getActiveConnections(), pool.getIdleConnections(),
+            pool.getTotalConnections(), pool.getThreadsAwaitingConnection());
+    }
+
+    public PoolStats plus(PoolStats other) {
+        return new PoolStats(active + other.active, idle + other.idle, total + other.total, pending + other.pending);
+    }
+}
@@ -3,22 +3,53 @@ package dev.hxrry.hxcore.database;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
+import org.postgresql.Driver;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 public class PostgreSQLDatabase extends Database {
     
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+    
+    public enum ReplicaRouting {
+        ROUND_ROBIN,
+        LEAST_LOADED // fewest busy + waiting connections
+    }
+    
     private final String host;
     private final int port;
     private final String database;
     private final String username;
     private final String password;
     private final int maxPoolSize;
+    private final boolean sharedPool;
     
     private HikariDataSource dataSource;
     
+    // optional read replicas, "host" or "host:port", same database and credentials as the primary
+    private List<String> replicaHosts = List.of();
+    private ReplicaRouting replicaRouting = ReplicaRouting.ROUND_ROBIN;
+    private List<HikariDataSource> replicaPools = List.of();
+    private volatile ReplicaRouter replicas;
+    
+    private volatile long readYourWritesNanos;
+    private volatile long lastWriteNanos = System.nanoTime() - Long.MAX_VALUE / 2; // "long ago" without waiting on a write
+    
     /**
      * @param host
      * @param port
@@ -30,6 +61,13 @@ public class PostgreSQLDatabase extends Database {
      */
 
     public PostgreSQLDatabase(String host, int port, String database, String username, String password, int maxPoolSize, Logger logger) {
+        this(host, port, database, username, password, maxPoolSize, false, logger);
+    }
+    
+    /**
+     * @param sharedPool borrow from one pool per url + credentials shared with other plugins, executor and metrics stay per plugin
+     */
+    public PostgreSQLDatabase(String host, int port, String database, String username, String password, int maxPoolSize, boolean sharedPool, Logger logger) {
         super("PostgreSQL:" + database, logger);
         this.host = host;
         this.port = port;
@@ -37,13 +75,123 @@ public class PostgreSQLDatabase extends Database {
         this.username = username;
         this.password = password;
         this.maxPoolSize = maxPoolSize;
+        this.sharedPool = sharedPool;
     }
     
     @Override
     public void connect() throws SQLException {
+        // AUTO mode has already connected us while probing
+        if (dataSource != null && !dataSource.isClosed()) {
+            return;
+        }
+        
+        try {
+            this.dataSource = openPool(jdbcUrl(), "");
+            
+            // test the connection
+            try (Connection conn = dataSource.getConnection()) {
+                logger.info("Connected to PostgreSQL database: " + database + " on " + host + (sharedPool ? " (shared pool)" : ""));
+            }
+        } catch (Exception e) {
+            closeDataSource();
+            throw new SQLException("Failed to connect to PostgreSQL: " + e.getMessage(), e);
+        }
+        
+        connectReplicas();
+    }
+    
+    // a replica that won't come up is left out, reads just have one less place to go
+    private void connectReplicas() {
+        List<HikariDataSource> pools = new ArrayList<>();
+        List<ReplicaRouter.Replica> targets = new ArrayList<>();
+        
+        for (String replica : replicaHosts) {
+            String address = replica.contains(":") ? replica : replica + ":" + port;
+            try {
+                HikariDataSource pool = openPool("jdbc:postgresql://" + address + "/" + database, "-replica-" + address);
+                pools.add(pool);
+                targets.add(new ReplicaRouter.Replica(address, pool));
+            } catch (Exception e) {
+                logger.warning("Failed to connect to PostgreSQL replica " + address + ", reads won't use it: " + e.getMessage());
+            }
+        }
+        
+        this.replicaPools = pools;
+        if (!targets.isEmpty()) {
+            this.replicas = new ReplicaRouter(targets, replicaRouting, logger);
+            logger.info("Routing reads across " + targets.size() + " PostgreSQL replica(s), " + replicaRouting.name().toLowerCase());
+        }
+    }
+    
+    private HikariDataSource openPool(String jdbcUrl, String poolSuffix) {
+        return sharedPool
+            ? SharedPools.acquire(jdbcUrl, username, password, maxPoolSize, () -> createConfig(jdbcUrl, poolSuffix), logger)
+            : new HikariDataSource(createConfig(jdbcUrl, poolSuffix));
+    }
+    
+    /**
+     * Send queryAsync/streamAsync/copyOutAsync to read replicas, takes effect on the next connect.
+     * Writes (queries with RETURNING or FOR UPDATE included), transactions and queryPrimaryAsync always stay on the primary.
+     *
+     * @param hosts "host" or "host:port" per replica
+     * @param routing
+     */
+    public void setReplicas(List<String> hosts, ReplicaRouting routing) {
+        this.replicaHosts = List.copyOf(hosts);
+        this.replicaRouting = routing;
+    }
+    
+    // after this plugin commits a write (update, batch, upsert, transaction or copy), its reads stick to the
+    // primary for the window so replica lag can't hide the write. zero turns it off
+    public void setReadYourWrites(Duration window) {
+        this.readYourWritesNanos = window.toNanos();
+    }
+    
+    // one throwaway connection with short timeouts, no pool. throws if the server can't be reached in time
+    public void probe(Duration timeout) throws SQLException {
+        String seconds = String.valueOf(Math.max(1, timeout.toSeconds()));
+        
+        Properties props = driverProperties();
+        props.setProperty("connectTimeout", seconds);
+        props.setProperty("loginTimeout", seconds);
+        props.setProperty("socketTimeout", seconds);
+        
+        try (Connection conn = new Driver().connect(jdbcUrl(), props)) {
+            if (conn == null || !conn.isValid((int) Math.max(1, timeout.toSeconds()))) {
+                throw new SQLException("PostgreSQL did not answer within " + timeout.toMillis() + "ms");
+            }
+        }
+    }
+    
+    // a connection of its own to the primary, outside the pool, for long lived stuff like LISTEN that
+    // would otherwise pin a pool slot and trip leak detection. caller closes it
+    public Connection openUnpooledConnection() throws SQLException {
+        Properties props = driverProperties();
+        props.setProperty("connectTimeout", "10");
+        props.setProperty("tcpKeepAlive", "true");
+        
+        Connection conn = new Driver().connect(jdbcUrl(), props);
+        if (conn == null) {
+            throw new SQLException("PostgreSQL driver rejected " + jdbcUrl());
+        }
+        return conn;
+    }
+    
+    private Properties driverProperties() {
+        Properties props = new Properties();
+        props.setProperty("user", username);
+        props.setProperty("password", password);
+        return props;
+    }
+    
+    private String jdbcUrl() {
+        return "jdbc:postgresql://" + host + ":" + port + "/" + database;
+    }
+    
+    private HikariConfig createConfig(String jdbcUrl, String poolSuffix) {
         HikariConfig config = new HikariConfig();
         
-        config.setJdbcUrl("jdbc:postgresql://" + host + ":" + port + "/" + database);
+        config.setJdbcUrl(jdbcUrl);
         config.setUsername(username);
         config.setPassword(password);
         
@@ -58,21 +206,13 @@ public class PostgreSQLDatabase extends Database {
         config.addDataSourceProperty("prepStmtCacheSize", "250");
         config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
         config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("reWriteBatchedInserts", "true"); // batchAsync inserts go out as multi-row VALUES
         
-        config.setPoolName("HxCore-PostgreSQL-" + database);
+        config.setPoolName("HxCore-PostgreSQL-" + (sharedPool ? "shared-" : "") + database + poolSuffix);
         
         config.setConnectionTestQuery("SELECT 1");
         
-        try {
-            this.dataSource = new HikariDataSource(config);
-            
-            // test the connection
-            try (Connection conn = dataSource.getConnection()) {
-                logger.info("Connected to PostgreSQL database: " + database + " on " + host);
-            }
-        } catch (Exception e) {
-            throw new SQLException("Failed to connect to PostgreSQL: " + e.getMessage(), e);
-        }
+        return config;
     }
     
     @Override
@@ -83,12 +223,52 @@ public class PostgreSQLDatabase extends Database {
         return dataSource.getConnection();
     }
     
+    // the read-your-writes window starts when the write lands, not when a primary connection is borrowed,
+    // so reads that fall back to the primary don't keep extending it
+    @Override
+    protected void onWriteCommitted() {
+        if (readYourWritesNanos > 0) {
+            lastWriteNanos = System.nanoTime();
+        }
+    }
+    
+    @Override
+    protected Connection getReadConnection() throws SQLException {
+        ReplicaRouter router = replicas;
+        if (router == null || (readYourWritesNanos > 0 && System.nanoTime() - lastWriteNanos < readYourWritesNanos)) {
+            return getConnection();
+        }
+        
+        Connection conn = router.getConnection();
+        return conn != null ? conn : getConnection(); // every replica down
+    }
+    
     @Override
     protected void closeDataSource() {
-        if (dataSource != null && !dataSource.isClosed()) {
+        replicas = null;
+        for (HikariDataSource pool : replicaPools) {
+            if (sharedPool) {
+                SharedPools.release(pool, logger);
+            } else {
+                pool.close();
+            }
+        }
+        replicaPools = List.of();
+        
+        if (dataSource == null) {
+            return;
+        }
+        
+        if (sharedPool) {
+            // only actually closes once the last plugin lets go
+            SharedPools.release(dataSource, logger);
+            logger.info("Released shared PostgreSQL pool");
+        } else if (!dataSource.isClosed()) {
             dataSource.close();
             logger.info("Disconnected from PostgreSQL database");
         }
+        
+        dataSource = null;
     }
     
     @Override
@@ -105,40 +285,168 @@ public class PostgreSQLDatabase extends Database {
         }
     }
 
-    public CompletableFuture<Void> upsertAsync(String table, String keyColumn, Object keyValue, Object... columnValuePairs) {
-        // upsert helper because native support
-        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
-        StringBuilder values = new StringBuilder("VALUES (");
-        StringBuilder update = new StringBuilder("ON CONFLICT (").append(keyColumn).append(") DO UPDATE SET ");
-        
-        sql.append(keyColumn).append(", ");
-        values.append("?, ");
-        
-        for (int i = 0; i < columnValuePairs.length; i += 2) {
-            String column = (String) columnValuePairs[i];
-            sql.append(column);
-            values.append("?");
-            update.append(column).append(" = EXCLUDED.").append(column);
-            
-            if (i < columnValuePairs.length - 2) {
-                sql.append(", ");
-                values.append(", ");
-                update.append(", ");
-            }
-        }
+    // bulk load through COPY FROM STDIN, way quicker than batched inserts for imports/snapshots
+    // rows are encoded as csv and shipped in ~64KB chunks as the iterator is walked, so the
+    // whole payload never sits in memory. returns the number of rows copied
+    public CompletableFuture<Long> copyInAsync(String table, List<String> columns, Iterator<Object[]> rows) {
+        String sql = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv)";
+        QueryMetrics.Timer timer = metrics.start(sql);
         
-        sql.append(") ");
-        values.append(") ");
-        
-        String query = sql.toString() + values.toString() + update.toString();
+        return supplyAsync(() -> {
+            try (Connection conn = acquire(timer, false)) {
+                CopyIn copy = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+                Exception failure = null;
+                
+                try {
+                    StringBuilder chunk = new StringBuilder(COPY_CHUNK_SIZE + 1024);
+                    
+                    while (rows.hasNext()) {
+                        Object[] row = rows.next();
+                        if (row.length != columns.size()) {
+                            throw new IllegalArgumentException("Expected " + columns.size() + " values per row but got " + row.length);
+                        }
+                        
+                        for (int i = 0; i < row.length; i++) {
+                            if (i > 0) {
+                                chunk.append(',');
+                            }
+                            appendCsv(chunk, row[i]);
+                        }
+                        chunk.append('\n');
+                        
+                        if (chunk.length() >= COPY_CHUNK_SIZE) {
+                            writeChunk(copy, chunk);
+                        }
+                    }
+                    
+                    if (!chunk.isEmpty()) {
+                        writeChunk(copy, chunk);
+                    }
+                    
+                    long copied = copy.endCopy();
+                    onWriteCommitted();
+                    
+                    timer.rows(copied);
+                    timer.finish(true);
+                    return copied;
+                    
+                } catch (SQLException | RuntimeException e) {
+                    failure = e;
+                    throw e;
+                } finally {
+                    // anything still active here means we bailed part way, a cancel that fails as well
+                    // mustn't hide why
+                    if (copy.isActive()) {
+                        try {
+                            copy.cancelCopy();
+                        } catch (SQLException cancelError) {
+                            if (failure == null) {
+                                throw cancelError;
+                            }
+                            failure.addSuppressed(cancelError);
+                        }
+                    }
+                }
+                
+            } catch (SQLException e) {
+                timer.finish(false);
+                logger.severe("COPY into " + table + " failed: " + e.getMessage());
+                throw new RuntimeException(e);
+            } catch (RuntimeException e) {
+                // a bad row or the caller's iterator throwing
+                timer.finish(false);
+                logger.severe("COPY into " + table + " failed: " + e.getMessage());
+                throw e;
+            }
+        });
+    }
+    
+    // export through COPY TO STDOUT as csv, streamed straight into out. returns the number of rows copied
+    public CompletableFuture<Long> copyOutAsync(String table, List<String> columns, OutputStream out) {
+        String sql = "COPY " + table + " (" + String.join(", ", columns) + ") TO STDOUT WITH (FORMAT csv)";
+        QueryMetrics.Timer timer = metrics.start(sql);
         
-        // build params array
-        Object[] params = new Object[columnValuePairs.length / 2 + 1];
-        params[0] = keyValue;
-        for (int i = 0, j = 1; i < columnValuePairs.length; i += 2, j++) {
-            params[j] = columnValuePairs[i + 1];
+        return supplyAsync(() -> {
+            try (Connection conn = acquire(timer, true)) {
+                long copied = conn.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, out);
+                
+                timer.rows(copied);
+                timer.finish(true);
+                return copied;
+                
+            } catch (SQLException | IOException e) {
+                timer.finish(false);
+                logger.severe("COPY out of " + table + " failed: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+    
+    private static void writeChunk(CopyIn copy, StringBuilder chunk) throws SQLException {
+        byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+        copy.writeToCopy(bytes, 0, bytes.length);
+        chunk.setLength(0);
+    }
+    
+    // unquoted empty is NULL in csv COPY, so strings are always quoted to keep '' distinct
+    private static void appendCsv(StringBuilder out, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+            return;
+        }
+        if (value instanceof byte[] bytes) {
+            out.append("\\x").append(HexFormat.of().formatHex(bytes)); // bytea hex form
+            return;
         }
         
-        return updateAsync(query, params).thenApply(rows -> null);
+        String text = value.toString();
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+    
+    @Override
+    protected void lockForMigration(Connection conn, String scope) throws SQLException {
+        // transaction scoped advisory lock, released on commit/rollback
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+            stmt.setLong(1, ("hxcore-migrations:" + scope).hashCode());
+            stmt.execute();
+        }
+    }
+    
+    @Override
+    public int getPoolSize() {
+        return maxPoolSize;
+    }
+    
+    // for a shared pool these are the whole pool's numbers, not just this plugin's share. includes replicas
+    @Override
+    public PoolStats getPoolStats() {
+        ReplicaRouter router = replicas;
+        PoolStats primary = PoolStats.of(dataSource);
+        return router != null ? primary.plus(router.getPoolStats()) : primary;
+    }
+    
+    public int getReplicaCount() {
+        ReplicaRouter router = replicas;
+        return router != null ? router.getReplicas().size() : 0;
+    }
+    
+    public boolean isSharedPool() {
+        return sharedPool;
+    }
+    
+    @Override
+    protected int maxParameters() {
+        return 65535; // wire protocol limit
     }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package dev.hxrry.hxcore.database;
+
+import dev.hxrry.hxcore.utils.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// per sql template timings for a Database: time queued in the executor, time waiting on the pool,
+// time executing and rows returned/affected. anything over the slow threshold gets logged
+
+public class QueryMetrics {
+
+    // dynamic sql could otherwise grow this forever
+    private static final int MAX_TEMPLATES = 256;
+    private static final String OVERFLOW = "<other>";
+
+    private final Logger logger;
+    private final Map<String, TemplateStats> templates = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+    private volatile long slowThresholdNanos;
+
+    public QueryMetrics(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static final class TemplateStats {
+        private final String sql;
+        private final LatencyHistogram queue = new LatencyHistogram();
+        private final LatencyHistogram acquire = new LatencyHistogram();
+        private final LatencyHistogram execute = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private TemplateStats(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() { return sql; }
+        public LatencyHistogram getQueueTime() { return queue; }
+        public LatencyHistogram getAcquireTime() { return acquire; }
+        public LatencyHistogram getExecuteTime() { return execute; }
+        public long getCount() { return execute.getCount(); }
+        public long getRows() { return rows.sum(); }
+        public long getErrors() { return errors.sum(); }
+    }
+
+    // one per call, stages are stamped as the call moves from submitted -> started -> acquired -> finished
+    public final class Timer {
+        private final String sql;
+        private final long submitted = System.nanoTime();
+        private long started;
+        private long acquired;
+        private long rowCount;
+
+        private Timer(String sql) {
+            this.sql = sql;
+        }
+
+        void started() {
+            started = System.nanoTime();
+        }
+
+        void acquired() {
+            acquired = System.nanoTime();
+        }
+
+        void rows(long rows) {
+            rowCount = rows;
+        }
+
+        void finish(boolean success) {
+            if (!enabled) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            // stages that never got stamped count as zero
+            long start = started == 0 ? now : started;
+            long connected = acquired == 0 ? start : acquired;
+
+            long queueNanos = start - submitted;
+            long acquireNanos = connected - start;
+            long executeNanos = now - connected;
+
+            TemplateStats stats = stats(sql);
+            stats.queue.recordNanos(queueNanos);
+            stats.acquire.recordNanos(acquireNanos);
+            stats.execute.recordNanos(executeNanos);
+            stats.rows.add(rowCount);
+            if (!success) {
+                stats.errors.increment();
+            }
+
+            long slow = slowThresholdNanos;
+            if (slow > 0 && queueNanos + acquireNanos + executeNanos >= slow) {
+                logger.warning(String.format("Slow query (%.1fms: queue %.1fms, acquire %.1fms, execute %.1fms, %d rows): %s",
+                    (queueNanos + acquireNanos + executeNanos) / 1e6, queueNanos / 1e6, acquireNanos / 1e6, executeNanos / 1e6, rowCount, sql));
+            }
+        }
+    }
+
+    Timer start(String sql) {
+        return new Timer(sql);
+    }
+
+    private TemplateStats stats(String sql) {
+        TemplateStats stats = templates.get(sql);
+        if (stats != null) {
+            return stats;
+        }
+
+        String key = templates.size() >= MAX_TEMPLATES ? OVERFLOW : sql;
+        return templates.computeIfAbsent(key, TemplateStats::new);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getSlowQueryThreshold() {
+        return Duration.ofNanos(slowThresholdNanos);
+    }
+
+    // zero turns the slow query log off
+    public void setSlowQueryThreshold(Duration threshold) {
+        this.slowThresholdNanos = threshold.toNanos();
+    }
+
+    // busiest first
+    public List<TemplateStats> getTemplates() {
+        List<TemplateStats> list = new ArrayList<>(templates.values());
+        list.sort(Comparator.comparingLong(TemplateStats::getCount).reversed());
+        return list;
+    }
+
+    public void reset() {
+        templates.clear();
+    }
+
+    // human readable dump, one line per template
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+
+        for (TemplateStats stats : getTemplates()) {
+            lines.add(String.format(
+                "%dx, %d rows, %d errors | queue p50=%.2fms p99=%.2fms | acquire p50=%.2fms p99=%.2fms | " +
+                "execute p50=%.2fms p99=%.2fms max=%.2fms | %s",
+                stats.getCount(), stats.getRows(), stats.getErrors(),
+                stats.queue.getPercentileMillis(50), stats.queue.getPercentileMillis(99),
+                stats.acquire.getPercentileMillis(50), stats.acquire.getPercentileMillis(99),
+                stats.execute.getPercentileMillis(50), stats.execute.getPercentileMillis(99), stats.execute.getMaxMillis(),
+                stats.sql
+            ));
+        }
+
+        return lines;
+    }
+}
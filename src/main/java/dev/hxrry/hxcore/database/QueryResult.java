@@ -1,108 +1,432 @@
 package dev.hxrry.hxcore.database;
 
+import java.lang.reflect.Array;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.*;
 
 // makes async stuff safer innit
+// stored column-major with primitive arrays where the column type allows it, so a big read
+// doesn't pay for a HashMap + boxed values per row. the map style api is just views over it
 
 public class QueryResult implements AutoCloseable {
-    
-    private final List<Map<String, Object>> rows;
-    private final List<String> columns;
+
+    // storage kinds per column
+    private static final byte OBJECT = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+
+    private final String[] columns;
+    private final Map<String, Integer> columnIndex;
+    private final byte[] kinds;
+    private final Object[] data; // int[], long[], double[] or Object[] per column
+    private final BitSet[] nulls; // only for primitive columns
     private final int rowCount;
-    
+    private boolean dynamicTyping; // sqlite, a column's declared type says nothing about each value
+
     /**
-     * @param rs 
+     * @param rs
      */
     public QueryResult(ResultSet rs) throws SQLException {
-        this.rows = new ArrayList<>();
-        this.columns = new ArrayList<>();
-        
         if (rs == null) {
+            this.columns = new String[0];
+            this.columnIndex = Map.of();
+            this.kinds = new byte[0];
+            this.data = new Object[0];
+            this.nulls = new BitSet[0];
             this.rowCount = 0;
             return;
         }
-        
+
         try {
             // read columns
             ResultSetMetaData meta = rs.getMetaData();
             int columnCount = meta.getColumnCount();
-            
-            for (int i = 1; i <= columnCount; i++) {
-                columns.add(meta.getColumnName(i));
+            this.dynamicTyping = isDynamicallyTyped(rs);
+
+            this.columns = new String[columnCount];
+            this.columnIndex = new HashMap<>(columnCount * 2);
+            this.kinds = new byte[columnCount];
+            this.data = new Object[columnCount];
+            this.nulls = new BitSet[columnCount];
+
+            int capacity = 16;
+
+            for (int c = 0; c < columnCount; c++) {
+                columns[c] = meta.getColumnName(c + 1);
+                columnIndex.putIfAbsent(columns[c], c); // first wins, same as rs.getObject(name)
+                kinds[c] = kindOf(meta.getColumnType(c + 1));
+                data[c] = allocate(kinds[c], capacity);
+
+                if (kinds[c] != OBJECT) {
+                    nulls[c] = new BitSet();
+                }
             }
+
             // read rows
+            int row = 0;
             while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                
-                for (String column : columns) {
-                    row.put(column, rs.getObject(column));
+                if (row == capacity) {
+                    capacity += capacity >> 1;
+                    for (int c = 0; c < columnCount; c++) {
+                        data[c] = grow(data[c], capacity);
+                    }
+                }
+
+                for (int c = 0; c < columnCount; c++) {
+                    readCell(rs, row, c);
                 }
-                
-                rows.add(row);
+
+                row++;
             }
-            
-            this.rowCount = rows.size();
-            
+
+            this.rowCount = row;
+
         } finally {
             // ALWAYS close the rs
             rs.close();
         }
     }
-    
+
+    private void readCell(ResultSet rs, int row, int c) throws SQLException {
+        int jdbcIndex = c + 1;
+
+        if (dynamicTyping && kinds[c] != OBJECT) {
+            readDynamicCell(rs, row, c);
+            return;
+        }
+
+        switch (kinds[c]) {
+            case INT -> {
+                // read wide so sqlite's dynamic typing can't silently truncate
+                long value = rs.getLong(jdbcIndex);
+                if (rs.wasNull()) {
+                    nulls[c].set(row);
+                } else if ((int) value == value) {
+                    ((int[]) data[c])[row] = (int) value;
+                } else {
+                    promote(c);
+                    ((Object[]) data[c])[row] = value;
+                }
+            }
+            case LONG -> {
+                long value = rs.getLong(jdbcIndex);
+                if (rs.wasNull()) {
+                    nulls[c].set(row);
+                } else {
+                    ((long[]) data[c])[row] = value;
+                }
+            }
+            case DOUBLE -> {
+                double value = rs.getDouble(jdbcIndex);
+                if (rs.wasNull()) {
+                    nulls[c].set(row);
+                } else {
+                    ((double[]) data[c])[row] = value;
+                }
+            }
+            default -> ((Object[]) data[c])[row] = rs.getObject(jdbcIndex);
+        }
+    }
+
+    // sqlite stores whatever it's given, so an INTEGER column can hold TEXT or REAL on any row. the value's
+    // own type decides: it stays primitive while it matches the column, otherwise the column goes boxed
+    // so getObject gives back exactly what rs.getObject would have
+    private void readDynamicCell(ResultSet rs, int row, int c) throws SQLException {
+        Object value = rs.getObject(c + 1);
+        if (value == null) {
+            nulls[c].set(row);
+            return;
+        }
+
+        switch (kinds[c]) {
+            case INT -> {
+                if (value instanceof Integer i) {
+                    ((int[]) data[c])[row] = i;
+                    return;
+                }
+            }
+            case LONG -> {
+                // sqlite-jdbc hands small values back as Integer, widening would change what getObject returns
+                if (value instanceof Long l) {
+                    ((long[]) data[c])[row] = l;
+                    return;
+                }
+            }
+            case DOUBLE -> {
+                if (value instanceof Double d) {
+                    ((double[]) data[c])[row] = d;
+                    return;
+                }
+            }
+            default -> {
+            }
+        }
+
+        promote(c);
+        ((Object[]) data[c])[row] = value;
+    }
+
+    // a primitive column got a value it can't hold as is, fall back to boxed storage for it
+    private void promote(int c) {
+        int length = Array.getLength(data[c]);
+        Object[] boxed = new Object[length];
+
+        for (int row = 0; row < length; row++) {
+            if (!nulls[c].get(row)) {
+                boxed[row] = switch (kinds[c]) {
+                    case INT -> ((int[]) data[c])[row];
+                    case LONG -> ((long[]) data[c])[row];
+                    default -> ((double[]) data[c])[row];
+                };
+            }
+        }
+
+        data[c] = boxed;
+        kinds[c] = OBJECT;
+        nulls[c] = null;
+    }
+
+    private static boolean isDynamicallyTyped(ResultSet rs) {
+        try {
+            Statement stmt = rs.getStatement();
+            return stmt != null && "SQLite".equalsIgnoreCase(stmt.getConnection().getMetaData().getDatabaseProductName());
+        } catch (SQLException e) {
+            return true; // can't tell, the per value path is always correct
+        }
+    }
+
+    private static byte kindOf(int sqlType) {
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER -> INT;
+            case Types.BIGINT -> LONG;
+            case Types.DOUBLE, Types.FLOAT -> DOUBLE;
+            default -> OBJECT;
+        };
+    }
+
+    private static Object allocate(byte kind, int capacity) {
+        return switch (kind) {
+            case INT -> new int[capacity];
+            case LONG -> new long[capacity];
+            case DOUBLE -> new double[capacity];
+            default -> new Object[capacity];
+        };
+    }
+
+    private static Object grow(Object array, int capacity) {
+        if (array instanceof int[] ints) return Arrays.copyOf(ints, capacity);
+        if (array instanceof long[] longs) return Arrays.copyOf(longs, capacity);
+        if (array instanceof double[] doubles) return Arrays.copyOf(doubles, capacity);
+        return Arrays.copyOf((Object[]) array, capacity);
+    }
+
     public boolean isEmpty() {
-        return rows.isEmpty();
+        return rowCount == 0;
     }
-    
+
     // gets rows count
     public int size() {
         return rowCount;
     }
-    
-    // gets first row
+
+    public int columnCount() {
+        return columns.length;
+    }
+
+    public List<String> getColumns() {
+        return List.of(columns);
+    }
+
+    // 0-based column index for a name, -1 if it isn't in the result
+    public int columnIndex(String column) {
+        Integer index = columnIndex.get(column);
+        return index != null ? index : -1;
+    }
+
+    public boolean isNull(int row, int column) {
+        checkRow(row);
+        return switch (kinds[column]) {
+            case OBJECT -> ((Object[]) data[column])[row] == null;
+            default -> nulls[column].get(row);
+        };
+    }
+
+    // typed getters, rows and columns are 0-based. nulls come back as 0 like jdbc does
+    public int getInt(int row, int column) {
+        checkRow(row);
+        return switch (kinds[column]) {
+            case INT -> ((int[]) data[column])[row];
+            case LONG -> (int) ((long[]) data[column])[row];
+            case DOUBLE -> (int) ((double[]) data[column])[row];
+            default -> toNumber(((Object[]) data[column])[row]).intValue();
+        };
+    }
+
+    public long getLong(int row, int column) {
+        checkRow(row);
+        return switch (kinds[column]) {
+            case INT -> ((int[]) data[column])[row];
+            case LONG -> ((long[]) data[column])[row];
+            case DOUBLE -> (long) ((double[]) data[column])[row];
+            default -> toNumber(((Object[]) data[column])[row]).longValue();
+        };
+    }
+
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        return switch (kinds[column]) {
+            case INT -> ((int[]) data[column])[row];
+            case LONG -> ((long[]) data[column])[row];
+            case DOUBLE -> ((double[]) data[column])[row];
+            default -> toNumber(((Object[]) data[column])[row]).doubleValue();
+        };
+    }
+
+    public String getString(int row, int column) {
+        Object value = getObject(row, column);
+        return value != null ? value.toString() : null;
+    }
+
+    // boxed value, same types rs.getObject would have given
+    public Object getObject(int row, int column) {
+        checkRow(row);
+        return switch (kinds[column]) {
+            case INT -> nulls[column].get(row) ? null : ((int[]) data[column])[row];
+            case LONG -> nulls[column].get(row) ? null : ((long[]) data[column])[row];
+            case DOUBLE -> nulls[column].get(row) ? null : ((double[]) data[column])[row];
+            default -> ((Object[]) data[column])[row];
+        };
+    }
+
+    public int getInt(int row, String column) {
+        return getInt(row, requireColumn(column));
+    }
+
+    public long getLong(int row, String column) {
+        return getLong(row, requireColumn(column));
+    }
+
+    public double getDouble(int row, String column) {
+        return getDouble(row, requireColumn(column));
+    }
+
+    public String getString(int row, String column) {
+        return getString(row, requireColumn(column));
+    }
+
+    public Object getObject(int row, String column) {
+        return getObject(row, requireColumn(column));
+    }
+
+    // gets first row, a mutable copy like it always was
     public Optional<Map<String, Object>> first() {
-        return rows.isEmpty() ? Optional.empty() : Optional.of(rows.get(0));
+        return rowCount == 0 ? Optional.empty() : Optional.of(new HashMap<>(new RowView(0)));
     }
-    
-    // gets all rows
+
+    // gets all rows as mutable copies, the typed getters or forEach avoid the per row maps
     public List<Map<String, Object>> all() {
-        return new ArrayList<>(rows);
+        List<Map<String, Object>> rows = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            rows.add(new HashMap<>(new RowView(row)));
+        }
+        return rows;
     }
-    
+
     // getter for single value from first row
     public <T> Optional<T> getValue(String column, Class<T> type) {
-        if (rows.isEmpty()) {
+        int index = columnIndex(column);
+        if (rowCount == 0 || index < 0) {
             return Optional.empty();
         }
-        
-        Object value = rows.get(0).get(column);
+
+        Object value = getObject(0, index);
         if (value == null) {
             return Optional.empty();
         }
-        
+
         try {
             return Optional.of(type.cast(value));
         } catch (ClassCastException e) {
             return Optional.empty();
         }
     }
-    
-    // iterate over all rows
+
+    // iterate over all rows, each one is a read-only view that's only valid during the call
     public void forEach(RowConsumer consumer) {
-        for (Map<String, Object> row : rows) {
-            consumer.accept(row);
+        for (int row = 0; row < rowCount; row++) {
+            consumer.accept(new RowView(row));
+        }
+    }
+
+    private int requireColumn(String column) {
+        int index = columnIndex(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("No column '" + column + "' in result " + Arrays.toString(columns));
+        }
+        return index;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + rowCount + " rows");
+        }
+    }
+
+    private static Number toNumber(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Number number) return number;
+        if (value instanceof Boolean bool) return bool ? 1 : 0;
+        return Double.valueOf(value.toString());
+    }
+
+    // read-only map over one row, lookups go straight to the column arrays
+    private final class RowView extends AbstractMap<String, Object> {
+        private final int row;
+
+        private RowView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int index = key instanceof String column ? columnIndex(column) : -1;
+            return index < 0 ? null : getObject(row, index);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String column && columnIndex.containsKey(column);
+        }
+
+        @Override
+        public int size() {
+            return columnIndex.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Set<Entry<String, Object>> entries = new LinkedHashSet<>();
+            for (int c = 0; c < columns.length; c++) {
+                if (columnIndex.get(columns[c]) == c) {
+                    entries.add(new SimpleImmutableEntry<>(columns[c], getObject(row, c)));
+                }
+            }
+            return Collections.unmodifiableSet(entries);
         }
     }
-    
+
     @FunctionalInterface
     public interface RowConsumer {
         void accept(Map<String, Object> row);
     }
-    
+
     @Override
     public void close() {
         // nothing to close - we already read everything
     }
-}
\ No newline at end of file
+}
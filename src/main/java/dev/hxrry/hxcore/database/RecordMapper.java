@@ -0,0 +1,183 @@
+package dev.hxrry.hxcore.database;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.RecordComponent;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+
+// record binding for RowMapper.of. one (ResultSet, int[]) -> record handle is composed per
+// record class from the canonical constructor and a typed getter per component, the int[] being
+// where each component's column sits in this particular query. bind() works that out once per
+// result set, so nothing is shared between concurrent queries
+
+final class RecordMapper<R extends Record> implements RowMapper<R> {
+
+    private static final ClassValue<RecordMapper<?>> MAPPERS = new ClassValue<>() {
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        protected RecordMapper<?> computeValue(Class<?> type) {
+            return new RecordMapper(type.asSubclass(Record.class));
+        }
+    };
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle READ_OBJECT;
+    private static final MethodHandle INDEX_AT = MethodHandles.arrayElementGetter(int[].class);
+
+    static {
+        try {
+            READ_OBJECT = LOOKUP.findStatic(RecordMapper.class, "readObject",
+                MethodType.methodType(Object.class, ResultSet.class, int.class, Class.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Class<R> type;
+    private final String[] names;
+    private final MethodHandle factory; // (ResultSet, int[])Object
+
+    @SuppressWarnings("unchecked")
+    static <R extends Record> RecordMapper<R> of(Class<R> type) {
+        return (RecordMapper<R>) MAPPERS.get(type);
+    }
+
+    private RecordMapper(Class<R> type) {
+        this.type = type;
+
+        RecordComponent[] components = type.getRecordComponents();
+        Class<?>[] types = new Class<?>[components.length];
+        this.names = new String[components.length];
+
+        for (int i = 0; i < components.length; i++) {
+            types[i] = components[i].getType();
+            names[i] = components[i].getName();
+        }
+
+        try {
+            Constructor<R> constructor = type.getDeclaredConstructor(types);
+            constructor.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectConstructor(constructor);
+
+            // swap each constructor arg for a getter reading its column, back to front so
+            // the positions still to be replaced don't shift
+            for (int i = types.length - 1; i >= 0; i--) {
+                MethodHandle index = MethodHandles.insertArguments(INDEX_AT, 1, i); // (int[])int
+                MethodHandle getter = MethodHandles.filterArguments(getter(types[i]), 1, index); // (ResultSet, int[])T
+                handle = MethodHandles.collectArguments(handle, i, getter);
+            }
+
+            // and collapse the n (ResultSet, int[]) pairs back down to one
+            int[] reorder = new int[types.length * 2];
+            for (int i = 0; i < reorder.length; i++) {
+                reorder[i] = i % 2;
+            }
+            handle = MethodHandles.permuteArguments(handle,
+                MethodType.methodType(type, ResultSet.class, int[].class), reorder);
+
+            this.factory = handle.asType(MethodType.methodType(Object.class, ResultSet.class, int[].class));
+
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Can't bind record " + type.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    // resolves the columns for this row alone, queries go through bind() instead
+    @Override
+    public R map(ResultSet row) throws SQLException {
+        return map(row, indexes(row));
+    }
+
+    @Override
+    public RowMapper<R> bind(ResultSet rs) throws SQLException {
+        int[] indexes = indexes(rs);
+        return row -> map(row, indexes);
+    }
+
+    private R map(ResultSet row, int[] indexes) throws SQLException {
+        try {
+            return type.cast((Object) factory.invokeExact(row, indexes));
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new SQLException("Failed to map row to " + type.getSimpleName(), t);
+        }
+    }
+
+    private int[] indexes(ResultSet rs) throws SQLException {
+        var meta = rs.getMetaData();
+        int columnCount = meta.getColumnCount();
+        String[] labels = new String[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            labels[c] = normalise(meta.getColumnLabel(c + 1));
+        }
+
+        int[] indexes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            int found = Arrays.asList(labels).indexOf(normalise(names[i]));
+            if (found < 0) {
+                throw new SQLException("No column for " + type.getSimpleName() + "." + names[i]);
+            }
+            indexes[i] = found + 1;
+        }
+        return indexes;
+    }
+
+    // playerId, player_id and PLAYERID all match
+    private static String normalise(String name) {
+        return name.replace("_", "").toLowerCase();
+    }
+
+    private static MethodHandle getter(Class<?> type) throws ReflectiveOperationException {
+        String name = null;
+
+        if (type == int.class) name = "getInt";
+        else if (type == long.class) name = "getLong";
+        else if (type == double.class) name = "getDouble";
+        else if (type == float.class) name = "getFloat";
+        else if (type == boolean.class) name = "getBoolean";
+        else if (type == short.class) name = "getShort";
+        else if (type == byte.class) name = "getByte";
+        else if (type == String.class) name = "getString";
+
+        if (name != null) {
+            return LOOKUP.findVirtual(ResultSet.class, name, MethodType.methodType(type, int.class));
+        }
+
+        // boxed, uuid, enum and whatever else go through readObject
+        return MethodHandles.insertArguments(READ_OBJECT, 2, type)
+            .asType(MethodType.methodType(type, ResultSet.class, int.class));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readObject(ResultSet rs, int index, Class<?> type) throws SQLException {
+        Object value = rs.getObject(index);
+        if (value == null || type.isInstance(value)) {
+            return value;
+        }
+
+        // sqlite hands back Integer/Long/Double/String whatever the declared type
+        if (value instanceof Number number) {
+            if (type == Long.class) return number.longValue();
+            if (type == Integer.class) return number.intValue();
+            if (type == Double.class) return number.doubleValue();
+            if (type == Float.class) return number.floatValue();
+            if (type == Short.class) return number.shortValue();
+            if (type == Byte.class) return number.byteValue();
+            if (type == Boolean.class) return number.intValue() != 0;
+        }
+        if (type == UUID.class) {
+            return UUID.fromString(value.toString());
+        }
+        if (type.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) type, value.toString());
+        }
+
+        return rs.getObject(index, type);
+    }
+}
@@ -0,0 +1,121 @@
+package dev.hxrry.hxcore.database;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+// picks a replica for each read. a replica that fails to hand out a connection is skipped for a
+// cooldown and the read goes to the next one, or back to the primary if none are left
+
+final class ReplicaRouter {
+
+    private static final long COOLDOWN_NANOS = 30_000_000_000L; // 30s
+
+    private final List<Replica> replicas;
+    private final PostgreSQLDatabase.ReplicaRouting strategy;
+    private final Logger logger;
+    private final AtomicInteger next = new AtomicInteger();
+
+    static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile long downUntil;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        DataSource dataSource() {
+            return dataSource;
+        }
+
+        // busy + waiting connections, only hikari pools report it so anything else counts as idle
+        private int load() {
+            if (dataSource instanceof HikariDataSource hikari) {
+                PoolStats stats = PoolStats.of(hikari);
+                return stats.active() + stats.pending();
+            }
+            return 0;
+        }
+
+        private boolean isUp(long now) {
+            return now - downUntil >= 0;
+        }
+    }
+
+    ReplicaRouter(List<Replica> replicas, PostgreSQLDatabase.ReplicaRouting strategy, Logger logger) {
+        this.replicas = List.copyOf(replicas);
+        this.strategy = strategy;
+        this.logger = logger;
+    }
+
+    // null when every replica is down, caller falls back to the primary
+    Connection getConnection() {
+        int size = replicas.size();
+        int start = strategy == PostgreSQLDatabase.ReplicaRouting.ROUND_ROBIN ? Math.floorMod(next.getAndIncrement(), size) : 0;
+
+        for (int attempt = 0; attempt < size; attempt++) {
+            Replica replica = pick(start, attempt);
+            if (replica == null) {
+                return null;
+            }
+
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.downUntil = System.nanoTime() + COOLDOWN_NANOS;
+                logger.warning("Replica " + replica.name + " unavailable, skipping it for 30s: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private Replica pick(int start, int attempt) {
+        long now = System.nanoTime();
+
+        if (strategy == PostgreSQLDatabase.ReplicaRouting.ROUND_ROBIN) {
+            // walk on from this read's slot past anything down
+            for (int i = attempt; i < replicas.size(); i++) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (replica.isUp(now)) {
+                    return replica;
+                }
+            }
+            return null;
+        }
+
+        Replica best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (Replica replica : replicas) {
+            if (!replica.isUp(now)) {
+                continue;
+            }
+            int load = replica.load();
+            if (load < bestLoad) {
+                best = replica;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    PoolStats getPoolStats() {
+        PoolStats total = PoolStats.EMPTY;
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof HikariDataSource hikari) {
+                total = total.plus(PoolStats.of(hikari));
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,24 @@
+package dev.hxrry.hxcore.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// maps the current row of a result set straight to an object, no intermediate map
+
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    T map(ResultSet row) throws SQLException;
+
+    // called once per result set before the first row, mappers that look columns up by name resolve
+    // them here and hand back a mapper that just reads by index
+    default RowMapper<T> bind(ResultSet rs) throws SQLException {
+        return this;
+    }
+
+    // binds columns to record components by name (playerId matches playerId or player_id)
+    // the binding is built once per record class, column positions once per query
+    static <R extends Record> RowMapper<R> of(Class<R> type) {
+        return RecordMapper.of(type);
+    }
+}
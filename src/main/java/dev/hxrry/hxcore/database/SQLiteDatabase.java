@@ -7,12 +7,32 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 public class SQLiteDatabase extends Database {
     
+    private static final int DEFAULT_READ_POOL_SIZE = 4;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    private static final Duration DEFAULT_CHECKPOINT_INTERVAL = Duration.ofMinutes(5);
+    private static final Duration DEFAULT_OPTIMIZE_INTERVAL = Duration.ofHours(1);
+    private static final double DEFAULT_VACUUM_THRESHOLD = 0.3;
+    
     private final File databaseFile;
+    private final int readPoolSize;
+    private final boolean groupCommit;
+    
+    // one writer so writes never fight over the file lock, plus read-only readers that WAL lets run alongside it
     private HikariDataSource dataSource;
+    private HikariDataSource readDataSource;
+    private SQLiteWriteQueue writeQueue;
+    private SQLiteMaintenance maintenance;
+    
+    private Duration checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private Duration optimizeInterval = DEFAULT_OPTIMIZE_INTERVAL;
+    private double vacuumThreshold = DEFAULT_VACUUM_THRESHOLD;
     
     /**
      * @param dataFolder 
@@ -21,7 +41,23 @@ public class SQLiteDatabase extends Database {
      */
 
     public SQLiteDatabase(File dataFolder, String fileName, Logger logger) {
+        this(dataFolder, fileName, DEFAULT_READ_POOL_SIZE, false, logger);
+    }
+    
+    /**
+     * @param dataFolder 
+     * @param fileName 
+     * @param readPoolSize read-only connections for queries, 0 sends reads through the writer
+     * @param groupCommit funnel updateAsync through one writer thread that commits pending writes together
+     * @param logger 
+     */
+    public SQLiteDatabase(File dataFolder, String fileName, int readPoolSize, boolean groupCommit, Logger logger) {
         super("SQLite:" + fileName, logger);
+        this.readPoolSize = readPoolSize;
+        this.groupCommit = groupCommit;
+        
+        // sqlite-jdbc has no statement cache of its own, so reuse them here
+        setStatementCacheSize(DEFAULT_STATEMENT_CACHE_SIZE);
         
         // ensure data folder exists
         if (!dataFolder.exists()) {
@@ -34,6 +70,11 @@ public class SQLiteDatabase extends Database {
     
     @Override
     public void connect() throws SQLException {
+        // already up, a second connect would leak the pools
+        if (dataSource != null && !dataSource.isClosed()) {
+            return;
+        }
+        
         // create file if it doesn't exist
         if (!databaseFile.exists()) {
             try {
@@ -44,30 +85,106 @@ public class SQLiteDatabase extends Database {
             }
         }
         
-        HikariConfig config = new HikariConfig();
-        
-        config.setJdbcUrl("jdbc:sqlite:" + databaseFile.getAbsolutePath());
-        
-        config.setMaximumPoolSize(1);
-        
-        // connection pool name for logs
-        config.setPoolName("HxCore-SQLite-" + databaseFile.getName());
-        
-        // sqlite-specific optimizations
-        config.addDataSourceProperty("journal_mode", "WAL"); 
-        config.addDataSourceProperty("synchronous", "NORMAL"); 
-        config.addDataSourceProperty("cache_size", "10000");
-        config.addDataSourceProperty("busy_timeout", "5000"); // ms
-        config.addDataSourceProperty("foreign_keys", "true");
-        
-        this.dataSource = new HikariDataSource(config);
-        
-        // pure first connection log 
-        try (Connection conn = dataSource.getConnection()) {
-            logger.info("Connected to SQLite database: " + databaseFile.getName());
+        // a failed attempt closes whatever it opened, so a retry starts clean instead of leaking a pool
+        try {
+            HikariConfig config = new HikariConfig();
+            
+            config.setJdbcUrl("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+            
+            config.setMaximumPoolSize(1);
+            
+            // connection pool name for logs
+            config.setPoolName("HxCore-SQLite-" + databaseFile.getName());
+            
+            // sqlite-specific optimizations
+            config.addDataSourceProperty("journal_mode", "WAL"); 
+            config.addDataSourceProperty("synchronous", "NORMAL"); 
+            config.addDataSourceProperty("cache_size", "10000");
+            config.addDataSourceProperty("busy_timeout", "5000"); // ms
+            config.addDataSourceProperty("foreign_keys", "true");
+            
+            this.dataSource = new HikariDataSource(config);
+            
+            // pure first connection log, also puts the file into WAL before any reader opens it
+            try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+                // only sticks on a fresh file, older ones get switched over by their next full VACUUM
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                logger.info("Connected to SQLite database: " + databaseFile.getName());
+            }
+            
+            if (readPoolSize > 0) {
+                HikariConfig readConfig = new HikariConfig();
+            
+                readConfig.setJdbcUrl("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+                readConfig.setMaximumPoolSize(readPoolSize);
+                readConfig.setMinimumIdle(1);
+                readConfig.setPoolName("HxCore-SQLite-" + databaseFile.getName() + "-read");
+            
+                // journal mode sticks to the file so the writer's WAL already applies here
+                readConfig.addDataSourceProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+                readConfig.addDataSourceProperty("cache_size", "10000");
+                readConfig.addDataSourceProperty("busy_timeout", "5000"); // ms
+            
+                this.readDataSource = new HikariDataSource(readConfig);
+            }
+            
+            if (groupCommit) {
+                this.writeQueue = new SQLiteWriteQueue(databaseFile.getName(), this::getConnection, this::prepare, logger);
+            }
+            
+            this.maintenance = new SQLiteMaintenance(databaseFile.getName(), this::getConnection,
+                checkpointInterval, optimizeInterval, vacuumThreshold, logger);
+        } catch (SQLException | RuntimeException e) {
+            closeDataSource();
+            throw e instanceof SQLException sql ? sql : new SQLException("Failed to connect to SQLite: " + e.getMessage(), e);
         }
     }
     
+    /**
+     * Background upkeep cadence, takes effect on the next connect.
+     *
+     * @param checkpointInterval PASSIVE wal checkpoint + incremental vacuum, zero disables
+     * @param optimizeInterval PRAGMA optimize + TRUNCATE checkpoint + fragmentation check, zero disables
+     * @param vacuumThreshold free page ratio (0 to 1) that triggers a full VACUUM on the optimize tick, 0 never does
+     */
+    public void setMaintenance(Duration checkpointInterval, Duration optimizeInterval, double vacuumThreshold) {
+        this.checkpointInterval = checkpointInterval;
+        this.optimizeInterval = optimizeInterval;
+        this.vacuumThreshold = vacuumThreshold;
+    }
+    
+    // full VACUUM on demand, blocks writes until it's done
+    public CompletableFuture<Void> vacuumAsync() {
+        return supplyAsync(() -> {
+            try {
+                requireMaintenance().vacuum();
+                return null;
+            } catch (SQLException e) {
+                logger.severe("VACUUM failed: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+    
+    // share of the file that is free pages and would come back from a VACUUM
+    public CompletableFuture<Double> getFreePageRatioAsync() {
+        return supplyAsync(() -> {
+            try {
+                return requireMaintenance().freeRatio();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+    
+    private SQLiteMaintenance requireMaintenance() {
+        SQLiteMaintenance current = maintenance;
+        if (current == null) {
+            throw new IllegalStateException("Database is not connected! Call connect() first.");
+        }
+        return current;
+    }
+    
     @Override
     public Connection getConnection() throws SQLException {
         if (dataSource == null || dataSource.isClosed()) {
@@ -76,12 +193,46 @@ public class SQLiteDatabase extends Database {
         return dataSource.getConnection();
     }
     
+    // plain reads go to the readers so they don't queue behind writes, see Database.isReadOnly
+    @Override
+    protected Connection getReadConnection() throws SQLException {
+        if (readDataSource == null || readDataSource.isClosed()) {
+            return getConnection();
+        }
+        return readDataSource.getConnection();
+    }
+    
+    @Override
+    public CompletableFuture<Integer> updateAsync(String sql, Object... params) {
+        if (writeQueue == null) {
+            return super.updateAsync(sql, params);
+        }
+        return writeQueue.submit(sql, params, metrics.start(sql));
+    }
+    
     @Override
     protected void closeDataSource() {
+        // stop background upkeep first, a vacuum in progress is interrupted rather than waited on
+        if (maintenance != null) {
+            maintenance.close();
+            maintenance = null;
+        }
+        
+        // commit whatever is still queued while the writer pool is open
+        if (writeQueue != null) {
+            writeQueue.close();
+            writeQueue = null;
+        }
+        
+        if (readDataSource != null && !readDataSource.isClosed()) {
+            readDataSource.close();
+        }
+        
         if (dataSource != null && !dataSource.isClosed()) {
-            try (Connection conn = dataSource.getConnection()) {
-                conn.prepareStatement("VACUUM").execute();
-                logger.info("Optimized database before shutdown");
+            // bounded sampling so this stays quick however big the file is, sqlite checkpoints the wal itself on last close
+            try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA analysis_limit = 400");
+                stmt.execute("PRAGMA optimize");
             } catch (SQLException e) {
                 // not critical, ignore
             }
@@ -96,6 +247,21 @@ public class SQLiteDatabase extends Database {
         return dataSource != null && !dataSource.isClosed();
     }
     
+    @Override
+    public int getPoolSize() {
+        return readPoolSize + 1; // readers plus the writer
+    }
+    
+    @Override
+    public PoolStats getPoolStats() {
+        return PoolStats.of(dataSource).plus(PoolStats.of(readDataSource));
+    }
+    
+    @Override
+    protected int maxParameters() {
+        return 32766; // SQLITE_MAX_VARIABLE_NUMBER since 3.32
+    }
+    
     public File getDatabaseFile() {
         return databaseFile;
     }
@@ -0,0 +1,171 @@
+package dev.hxrry.hxcore.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// background upkeep for sqlite so shutdown doesn't have to rewrite the whole file:
+//  - every checkpoint tick: PASSIVE wal checkpoint + a bounded incremental_vacuum
+//  - every optimize tick: PRAGMA optimize, TRUNCATE checkpoint, and a full VACUUM only if the
+//    free page ratio is past the threshold
+// everything runs on the writer connection, one task at a time
+
+final class SQLiteMaintenance {
+
+    private static final int INCREMENTAL_PAGES = 2048; // ~8MB at the default page size, keeps the writer hold short
+    private static final int ANALYSIS_LIMIT = 400; // rows sampled per index by optimize
+
+    private final String name;
+    private final SQLiteWriteQueue.ConnectionSource source;
+    private final Logger logger;
+    private final double vacuumThreshold;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Statement running; // so close() can interrupt a long vacuum
+    private volatile boolean closed;
+
+    SQLiteMaintenance(String name, SQLiteWriteQueue.ConnectionSource source, Duration checkpointInterval,
+                      Duration optimizeInterval, double vacuumThreshold, Logger logger) {
+        this.name = name;
+        this.source = source;
+        this.logger = logger;
+        this.vacuumThreshold = vacuumThreshold;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("HxCore-SQLiteMaintenance-" + name).daemon().factory());
+
+        if (!checkpointInterval.isZero()) {
+            long millis = checkpointInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(this::checkpoint, millis, millis, TimeUnit.MILLISECONDS);
+        }
+        if (!optimizeInterval.isZero()) {
+            long millis = optimizeInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(this::optimize, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void checkpoint() {
+        try (Connection conn = source.get()) {
+            execute(conn, "PRAGMA wal_checkpoint(PASSIVE)");
+
+            // only does anything once the file is in incremental mode
+            if (pragma(conn, "auto_vacuum") == 2) {
+                vacuumIncrementally(conn, INCREMENTAL_PAGES);
+            }
+        } catch (SQLException e) {
+            if (!closed) {
+                logger.warning("SQLite checkpoint failed for " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void optimize() {
+        try (Connection conn = source.get()) {
+            execute(conn, "PRAGMA analysis_limit = " + ANALYSIS_LIMIT);
+            execute(conn, "PRAGMA optimize");
+            execute(conn, "PRAGMA wal_checkpoint(TRUNCATE)");
+
+            double ratio = freeRatio(conn);
+            if (vacuumThreshold > 0 && ratio >= vacuumThreshold) {
+                logger.info(String.format("SQLite %s is %.0f%% free pages, running VACUUM", name, ratio * 100));
+                vacuum(conn);
+            }
+        } catch (SQLException e) {
+            if (!closed) {
+                logger.warning("SQLite optimize failed for " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // full rewrite, also switches an old file over to incremental auto_vacuum. holds the writer for the duration
+    void vacuum() throws SQLException {
+        try (Connection conn = source.get()) {
+            vacuum(conn);
+        }
+    }
+
+    private void vacuum(Connection conn) throws SQLException {
+        long start = System.nanoTime();
+
+        execute(conn, "PRAGMA auto_vacuum = INCREMENTAL");
+        execute(conn, "VACUUM");
+
+        logger.info("Vacuumed SQLite database " + name + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    // share of the file that is free pages, 0 to 1
+    double freeRatio() throws SQLException {
+        try (Connection conn = source.get()) {
+            return freeRatio(conn);
+        }
+    }
+
+    private double freeRatio(Connection conn) throws SQLException {
+        long pages = pragma(conn, "page_count");
+        return pages == 0 ? 0 : (double) pragma(conn, "freelist_count") / pages;
+    }
+
+    // waits on nothing: pending ticks are dropped and a running vacuum gets interrupted
+    void close() {
+        closed = true;
+        scheduler.shutdownNow();
+
+        Statement stmt = running;
+        if (stmt != null) {
+            try {
+                stmt.cancel(); // sqlite3_interrupt, vacuum rolls back and the file is left as it was
+            } catch (SQLException e) {
+                // already finished
+            }
+        }
+    }
+
+    private void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            running = stmt;
+            stmt.execute(sql);
+        } finally {
+            running = null;
+        }
+    }
+
+    // incremental_vacuum frees a page per step and how far one execute() steps it is up to the driver,
+    // so it runs until the free list is down by the pages asked for. freelist_count is the measure, not
+    // anything the driver reports for a pragma with no columns, and a run that frees nothing ends it
+    private void vacuumIncrementally(Connection conn, int pages) throws SQLException {
+        long free = pragma(conn, "freelist_count");
+        long target = Math.max(0, free - pages);
+
+        while (free > target && !closed) {
+            try (Statement stmt = conn.createStatement()) {
+                running = stmt;
+                if (stmt.execute("PRAGMA incremental_vacuum(" + (free - target) + ")")) {
+                    try (ResultSet rs = stmt.getResultSet()) {
+                        while (rs.next()) {
+                            // stepping is the work
+                        }
+                    }
+                }
+            } finally {
+                running = null;
+            }
+
+            long after = pragma(conn, "freelist_count");
+            if (after >= free) {
+                return;
+            }
+            free = after;
+        }
+    }
+
+    private static long pragma(Connection conn, String pragma) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package dev.hxrry.hxcore.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// group commit for sqlite: one thread takes whatever writes are waiting and runs them in a single
+// transaction, so a burst of N updates costs one fsync instead of N. each write sits in its own
+// savepoint so a bad statement only fails its own caller
+
+final class SQLiteWriteQueue {
+
+    private static final int MAX_GROUP_SIZE = 256;
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final ConnectionSource source;
+    private final StatementSource statements;
+    private final Logger logger;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private record Write(String sql, Object[] params, QueryMetrics.Timer timer, CompletableFuture<Integer> result) {}
+
+    @FunctionalInterface
+    interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface StatementSource {
+        StatementCache.Lease prepare(Connection conn, String sql) throws SQLException;
+    }
+
+    SQLiteWriteQueue(String name, ConnectionSource source, StatementSource statements, Logger logger) {
+        this.source = source;
+        this.statements = statements;
+        this.logger = logger;
+        this.thread = Thread.ofPlatform().name("HxCore-SQLiteWriter-" + name).daemon().start(this::run);
+    }
+
+    CompletableFuture<Integer> submit(String sql, Object[] params, QueryMetrics.Timer timer) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        if (!running) {
+            result.completeExceptionally(new IllegalStateException("SQLite writer is shut down"));
+            return result;
+        }
+
+        queue.add(new Write(sql, params, timer, result));
+        return result;
+    }
+
+    private void run() {
+        List<Write> group = new ArrayList<>();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                group.add(first);
+                queue.drainTo(group, MAX_GROUP_SIZE - 1);
+                commitOrFail(List.copyOf(group));
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    // this is the only writer thread, so nothing a group throws may end the loop or every later submit hangs
+    private void commitOrFail(List<Write> group) {
+        try {
+            commit(group);
+        } catch (RuntimeException | Error e) {
+            logger.severe("Group commit of " + group.size() + " writes failed: " + e);
+            for (Write write : group) {
+                write.timer().finish(false);
+                write.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void commit(List<Write> group) {
+        int[] counts = new int[group.size()];
+        SQLException[] errors = new SQLException[group.size()];
+        boolean savepoints = group.size() > 1; // nothing to isolate for a lone write
+        boolean committed = false;
+
+        // queue time runs until the group starts, acquire covers getting the writer connection
+        for (Write write : group) {
+            write.timer().started();
+        }
+        
+        try (Connection conn = source.get()) {
+            for (Write write : group) {
+                write.timer().acquired();
+            }
+            
+            conn.setAutoCommit(false);
+
+            try (Statement control = conn.createStatement()) {
+                for (int i = 0; i < group.size(); i++) {
+                    Write write = group.get(i);
+
+                    if (savepoints) {
+                        control.execute("SAVEPOINT hx_write");
+                    }
+
+                    try (StatementCache.Lease lease = statements.prepare(conn, write.sql())) {
+                        PreparedStatement stmt = lease.statement();
+                        Database.setParameters(stmt, write.params());
+                        counts[i] = stmt.executeUpdate();
+                    } catch (SQLException e) {
+                        if (!savepoints) {
+                            throw e;
+                        }
+                        errors[i] = e;
+                        control.execute("ROLLBACK TO hx_write");
+                    }
+
+                    if (savepoints) {
+                        control.execute("RELEASE hx_write");
+                    }
+                }
+
+                conn.commit();
+                committed = true;
+
+            } catch (SQLException | RuntimeException | Error e) {
+                // restoring autocommit below would otherwise commit the half done group
+                conn.rollback();
+                throw e;
+            } finally {
+                restoreAutoCommit(conn, committed);
+            }
+
+        } catch (SQLException | RuntimeException e) {
+            if (!committed) {
+                logger.severe("Group commit of " + group.size() + " writes failed: " + e.getMessage());
+                complete(group, counts, null, e);
+                return;
+            }
+            // the writes are durable, only giving the connection back went wrong
+            logger.warning("Writer connection cleanup failed after commit: " + e.getMessage());
+        }
+
+        complete(group, counts, errors, null);
+    }
+
+    // a failure here is reported on its own, it mustn't fail writes that already committed or hide a rollback's cause
+    private void restoreAutoCommit(Connection conn, boolean committed) {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            logger.warning("Couldn't restore autocommit on the writer connection"
+                + (committed ? " after commit: " : ": ") + e.getMessage());
+        }
+    }
+
+    // completed off the writer thread so caller callbacks can't stall the next commit
+    private void complete(List<Write> group, int[] counts, SQLException[] errors, Exception groupError) {
+        Thread.startVirtualThread(() -> {
+            for (int i = 0; i < group.size(); i++) {
+                Write write = group.get(i);
+                Exception error = groupError != null ? groupError : errors[i];
+
+                if (error != null) {
+                    write.timer().finish(false);
+                    logger.severe("Update failed: " + write.sql());
+                    write.result().completeExceptionally(new RuntimeException(error));
+                } else {
+                    write.timer().rows(counts[i]);
+                    write.timer().finish(true);
+                    write.result().complete(counts[i]);
+                }
+            }
+        });
+    }
+
+    // stops taking writes, commits what's queued and waits for the thread to finish
+    void close() {
+        running = false;
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // anything that slipped in after the last drain
+        Write leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.result().completeExceptionally(new IllegalStateException("SQLite writer is shut down"));
+        }
+    }
+}
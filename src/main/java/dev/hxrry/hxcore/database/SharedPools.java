@@ -0,0 +1,72 @@
+package dev.hxrry.hxcore.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// reference counted hikari pools keyed by jdbc url + credentials, so every plugin running on the same
+// HxCore classes and pointing at the same database shares one pool instead of opening its own.
+// the first plugin's settings size the pool, it closes when the last one lets go
+
+final class SharedPools {
+
+    private static final Map<Key, Entry> POOLS = new HashMap<>();
+
+    private record Key(String jdbcUrl, String username, String password) {
+        @Override
+        public String toString() {
+            return username + "@" + jdbcUrl; // keep the password out of any logs
+        }
+    }
+
+    private static final class Entry {
+        private final HikariDataSource dataSource;
+        private final int maxPoolSize;
+        private int references;
+
+        private Entry(HikariDataSource dataSource, int maxPoolSize) {
+            this.dataSource = dataSource;
+            this.maxPoolSize = maxPoolSize;
+        }
+    }
+
+    private SharedPools() {
+    }
+
+    static synchronized HikariDataSource acquire(String jdbcUrl, String username, String password,
+                                                 int maxPoolSize, Supplier<HikariConfig> config, Logger logger) {
+        Key key = new Key(jdbcUrl, username, password);
+        Entry entry = POOLS.get(key);
+
+        if (entry == null || entry.dataSource.isClosed()) {
+            entry = new Entry(new HikariDataSource(config.get()), maxPoolSize);
+            POOLS.put(key, entry);
+            logger.info("Opened shared pool for " + key + " (max " + maxPoolSize + ")");
+        } else if (maxPoolSize > entry.maxPoolSize) {
+            logger.warning("Shared pool for " + key + " is capped at " + entry.maxPoolSize + ", ignoring max-pool-size " + maxPoolSize);
+        }
+
+        entry.references++;
+        return entry.dataSource;
+    }
+
+    static synchronized void release(HikariDataSource dataSource, Logger logger) {
+        for (Map.Entry<Key, Entry> pool : POOLS.entrySet()) {
+            Entry entry = pool.getValue();
+            if (entry.dataSource != dataSource) {
+                continue;
+            }
+
+            if (--entry.references <= 0) {
+                POOLS.remove(pool.getKey());
+                dataSource.close();
+                logger.info("Closed shared pool for " + pool.getKey() + ", no plugins left using it");
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package dev.hxrry.hxcore.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// lru of prepared statements per physical connection, keyed by sql text. hikari closes every statement
+// when a borrowed connection goes back, so statements are prepared on the unwrapped connection instead
+// and survive between borrows. the pool only hands a connection to one thread at a time so each lru
+// is single threaded. caches for connections hikari has since closed are dropped
+
+final class StatementCache {
+
+    private final int maxSize;
+    private final Map<Connection, Lru> caches = new ConcurrentHashMap<>();
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    // wraps a prepared statement, closing the lease hands it back instead of closing it
+    static final class Lease implements AutoCloseable {
+        private final PreparedStatement statement;
+        private final Lru owner;
+        private final String sql;
+
+        private Lease(PreparedStatement statement, Lru owner, String sql) {
+            this.statement = statement;
+            this.owner = owner;
+            this.sql = sql;
+        }
+
+        PreparedStatement statement() {
+            return statement;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (owner == null) {
+                statement.close();
+                return;
+            }
+
+            try {
+                statement.clearParameters();
+                statement.clearBatch(); // a failed executeBatch can leave rows queued
+            } catch (SQLException e) {
+                // no longer usable, make sure it gets re-prepared
+                owner.remove(sql);
+                statement.close();
+            }
+        }
+    }
+
+    private static final class Lru extends LinkedHashMap<String, PreparedStatement> {
+        private final int maxSize;
+
+        private Lru(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    }
+
+    Lease prepare(Connection conn, String sql) throws SQLException {
+        if (maxSize <= 0) {
+            return new Lease(conn.prepareStatement(sql), null, sql);
+        }
+
+        Connection physical = conn.unwrap(Connection.class);
+        Lru lru = caches.get(physical);
+        if (lru == null) {
+            // a new physical connection usually means hikari retired an old one
+            sweep();
+            lru = caches.computeIfAbsent(physical, c -> new Lru(maxSize));
+        }
+
+        PreparedStatement statement = lru.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = physical.prepareStatement(sql);
+            lru.put(sql, statement);
+        }
+
+        return new Lease(statement, lru, sql);
+    }
+
+    int size() {
+        return caches.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private void sweep() {
+        caches.entrySet().removeIf(entry -> {
+            try {
+                if (!entry.getKey().isClosed()) {
+                    return false;
+                }
+            } catch (SQLException e) {
+                // treat as closed
+            }
+            entry.getValue().values().forEach(StatementCache::closeQuietly);
+            return true;
+        });
+    }
+
+    // on disconnect, before the pools go
+    void clear() {
+        for (Lru lru : caches.values()) {
+            lru.values().forEach(StatementCache::closeQuietly);
+        }
+        caches.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // going anyway
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package dev.hxrry.hxcore.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+// collects upserts in memory and writes them out in one batched transaction every so often
+// repeated writes to the same (table, key) are merged column by column so only the latest values go out
+// get one from Database.createWriteBehind - the database drains it on disconnect
+
+public class WriteBehindBuffer {
+
+    private final Database database;
+    private final Logger logger;
+    private final int maxPending;
+    private final FlushChain flushes;
+
+    private final Object lock = new Object();
+    private Map<RowKey, PendingRow> pending = new LinkedHashMap<>();
+    private boolean lastFailed;
+    private volatile boolean closed;
+
+    private record RowKey(String table, Object key) {}
+
+    private record PendingRow(String keyColumn, LinkedHashMap<String, Object> values) {}
+
+    // rows sharing a table and column set can go in one batch
+    private record Shape(String table, String keyColumn, List<String> columns) {}
+
+    WriteBehindBuffer(Database database, Logger logger, int maxPending, Duration flushInterval) {
+        this.database = database;
+        this.logger = logger;
+        this.maxPending = maxPending;
+        this.flushes = new FlushChain("HxCore-WriteBehind-" + database.name, logger);
+        flushes.schedule(flushInterval, this::flush);
+    }
+
+    // queue an upsert, same pairs style as Database.upsertAsync
+    public void upsert(String table, String keyColumn, Object keyValue, Object... columnValuePairs) {
+        if (columnValuePairs.length % 2 != 0) {
+            throw new IllegalArgumentException("columnValuePairs must be column, value pairs");
+        }
+        if (closed) {
+            throw new IllegalStateException("Write-behind buffer for " + database.name + " is closed");
+        }
+
+        boolean full;
+        synchronized (lock) {
+            PendingRow row = pending.computeIfAbsent(new RowKey(table, keyValue),
+                k -> new PendingRow(keyColumn, new LinkedHashMap<>()));
+
+            for (int i = 0; i < columnValuePairs.length; i += 2) {
+                row.values().put((String) columnValuePairs[i], columnValuePairs[i + 1]);
+            }
+
+            // a flush already running will be followed by the timer's, and after a failure (database down)
+            // every size-triggered flush would just fail again, so only the timer retries
+            full = pending.size() >= maxPending && flushes.isIdle() && !lastFailed;
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    public int pendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    // writes everything queued so far, after any flush already running
+    public CompletableFuture<Void> flush() {
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return flushes.last();
+            }
+
+            Map<RowKey, PendingRow> snapshot = pending;
+            pending = new LinkedHashMap<>();
+            return flushes.then(() -> writeOrRequeue(snapshot));
+        }
+    }
+
+    // rows go back inside the step so the next flush already sees them, and a write that throws before
+    // it has a future (like a rejected submit on a closed executor) still puts them back
+    private CompletableFuture<Void> writeOrRequeue(Map<RowKey, PendingRow> snapshot) {
+        CompletableFuture<Void> written;
+        try {
+            written = write(snapshot);
+        } catch (RuntimeException e) {
+            written = CompletableFuture.failedFuture(e);
+        }
+
+        return written.whenComplete((v, e) -> {
+            if (e != null) {
+                logger.warning("Write-behind flush of " + snapshot.size() + " rows failed, requeueing: " + e.getMessage());
+                requeue(snapshot);
+            }
+            synchronized (lock) {
+                lastFailed = e != null;
+            }
+        });
+    }
+
+    private CompletableFuture<Void> write(Map<RowKey, PendingRow> snapshot) {
+        Map<Shape, List<Object[]>> batches = new LinkedHashMap<>();
+
+        for (Map.Entry<RowKey, PendingRow> entry : snapshot.entrySet()) {
+            PendingRow row = entry.getValue();
+            Shape shape = new Shape(entry.getKey().table(), row.keyColumn(), List.copyOf(row.values().keySet()));
+
+            Object[] params = new Object[row.values().size() + 1];
+            params[0] = entry.getKey().key();
+            int i = 1;
+            for (Object value : row.values().values()) {
+                params[i++] = value;
+            }
+
+            batches.computeIfAbsent(shape, k -> new ArrayList<>()).add(params);
+        }
+
+        return database.transactionAsync(conn -> writeBatches(conn, batches));
+    }
+
+    private void writeBatches(Connection conn, Map<Shape, List<Object[]>> batches) throws SQLException {
+        for (Map.Entry<Shape, List<Object[]>> batch : batches.entrySet()) {
+            Shape shape = batch.getKey();
+            String sql = database.upsertSql(shape.table(), shape.keyColumn(), shape.columns(), 1);
+
+            try (StatementCache.Lease lease = database.prepare(conn, sql)) {
+                PreparedStatement stmt = lease.statement();
+                for (Object[] params : batch.getValue()) {
+                    Database.setParameters(stmt, params);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    // put failed rows back without clobbering anything newer that came in meanwhile
+    private void requeue(Map<RowKey, PendingRow> failed) {
+        synchronized (lock) {
+            Map<RowKey, PendingRow> merged = new LinkedHashMap<>(failed);
+
+            for (Map.Entry<RowKey, PendingRow> entry : pending.entrySet()) {
+                PendingRow older = merged.get(entry.getKey());
+                if (older == null) {
+                    merged.put(entry.getKey(), entry.getValue());
+                } else {
+                    older.values().putAll(entry.getValue().values());
+                }
+            }
+
+            pending = merged;
+        }
+    }
+
+    // stops the timer and blocks until everything queued is written
+    void close() {
+        closed = true;
+        flushes.stopTimer();
+
+        try {
+            flush().join();
+        } catch (Exception e) {
+            logger.severe("Write-behind drain failed, " + pendingCount() + " rows were not saved: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package dev.hxrry.hxcore.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lock-free log-linear latency histogram, hdr style
+ * 8 buckets per power of two so any percentile is within ~12% of the real value,
+ * fixed memory no matter how many samples go in. values are kept in microseconds
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = SUB_COUNT * 2; // below this every value gets its own bucket
+    private static final int MAX_EXPONENT = 40; // ~12 days in micros, anything above lands in the last bucket
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * record one sample in nanoseconds
+     */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(index(micros));
+        total.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public double getMeanMillis() {
+        long count = total.sum();
+        return count == 0 ? 0 : sum.sum() / (double) count / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * value at the given percentile (0-100) in milliseconds, 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                // middle of the bucket, never past the biggest value actually seen
+                long mid = i < LINEAR ? i : (lowerBound(i) + lowerBound(i + 1) - 1) / 2;
+                return Math.min(mid, max.get()) / 1000.0;
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    /**
+     * moves everything recorded so far into a new histogram and leaves this one counting from zero.
+     * safe against concurrent recordNanos, a sample lands in either the drained copy or the next one
+     */
+    public LatencyHistogram drain() {
+        LatencyHistogram drained = new LatencyHistogram();
+        long moved = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.getAndSet(i, 0);
+            if (count != 0) {
+                drained.counts.set(i, count);
+                moved += count;
+            }
+        }
+        drained.total.add(moved);
+        total.add(-moved);
+
+        // subtracting what was read rather than resetting keeps a sum added meanwhile for next time
+        long micros = sum.sum();
+        drained.sum.add(micros);
+        sum.add(-micros);
+
+        drained.max.accumulate(max.getThenReset());
+        return drained;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int index(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return Math.min(LINEAR + (exponent - SUB_BITS - 1) * SUB_COUNT + sub, BUCKETS - 1);
+    }
+
+    private static long lowerBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+
+        int exponent = (index - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+        int sub = (index - LINEAR) % SUB_COUNT;
+        return (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+}
@@ -0,0 +1,208 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSnapshotTest {
+
+    private final CacheSnapshot<String, Integer> snapshot = new CacheSnapshot<>(CacheCodec.strings(), CacheCodec.ints());
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("hxcore-snapshot");
+        file = directory.resolve("test.snapshot");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    void entriesComeBackWithWhatWasLeftOfTheirTtl() throws IOException {
+        FakeCache source = new FakeCache(true);
+        source.put("long", 1, Duration.ofMinutes(10));
+        source.put("short", 2, Duration.ofSeconds(30));
+
+        assertEquals(2, snapshot.save(source.cache(), file));
+
+        FakeCache target = new FakeCache(true);
+        assertEquals(2, snapshot.load(target.cache(), file));
+
+        assertEquals(1, target.values.get("long"));
+        assertEquals(2, target.values.get("short"));
+        assertBetween(Duration.ofMinutes(9), Duration.ofMinutes(10), target.ttls.get("long"));
+        assertBetween(Duration.ofSeconds(29), Duration.ofSeconds(30), target.ttls.get("short"));
+
+        // loading consumes the file
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void entriesThatExpiredWhileDownAreSkipped() throws Exception {
+        FakeCache source = new FakeCache(true);
+        source.put("kept", 1, Duration.ofMinutes(1));
+        source.put("gone", 2, Duration.ofMillis(20));
+        snapshot.save(source.cache(), file);
+
+        Thread.sleep(50);
+
+        FakeCache target = new FakeCache(true);
+        assertEquals(1, snapshot.load(target.cache(), file));
+        assertEquals(1, target.values.get("kept"));
+        assertNull(target.values.get("gone"));
+    }
+
+    @Test
+    void entriesExpiringMidSaveAreLeftOut() throws IOException {
+        FakeCache source = new FakeCache(true);
+        source.put("a", 1, Duration.ofMinutes(1));
+        source.values.put("racing", 2); // in the map but already past its ttl
+
+        assertEquals(1, snapshot.save(source.cache(), file));
+    }
+
+    @Test
+    void whatIsAlreadyCachedWins() throws IOException {
+        FakeCache source = new FakeCache(true);
+        source.put("a", 1, Duration.ofMinutes(1));
+        source.put("b", 2, Duration.ofMinutes(1));
+        snapshot.save(source.cache(), file);
+
+        FakeCache target = new FakeCache(true);
+        target.put("a", 100, Duration.ofMinutes(5));
+
+        assertEquals(1, snapshot.load(target.cache(), file));
+        assertEquals(100, target.values.get("a"));
+        assertEquals(Duration.ofMinutes(5), target.ttls.get("a"));
+        assertEquals(2, target.values.get("b"));
+    }
+
+    @Test
+    void cachesWithoutExpiryRoundTrip() throws IOException {
+        FakeCache source = new FakeCache(false);
+        source.values.put("a", 1);
+        source.values.put("b", 2);
+        snapshot.save(source.cache(), file);
+
+        // and a cache that gained a ttl since still takes entries saved without one
+        FakeCache target = new FakeCache(true);
+        assertEquals(2, snapshot.load(target.cache(), file));
+        assertEquals(Map.of("a", 1, "b", 2), Map.copyOf(target.values));
+    }
+
+    @Test
+    void aMissingFileLoadsNothing() throws IOException {
+        assertEquals(0, snapshot.load(new FakeCache(true).cache(), file));
+    }
+
+    @Test
+    void aForeignFileIsRejectedAndDeleted() throws IOException {
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertThrows(IOException.class, () -> snapshot.load(new FakeCache(true).cache(), file));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void saveReplacesTheOldSnapshotWithoutLeavingATempFile() throws IOException {
+        FakeCache source = new FakeCache(false);
+        source.values.put("a", 1);
+        snapshot.save(source.cache(), file);
+
+        source.values.put("b", 2);
+        assertEquals(2, snapshot.save(source.cache(), file));
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private static void assertBetween(Duration low, Duration high, Duration actual) {
+        assertNotNull(actual);
+        assertTrue(actual.compareTo(low) >= 0 && actual.compareTo(high) <= 0, low + " <= " + actual + " <= " + high);
+    }
+
+    // just enough of a caffeine cache for the snapshot: asMap, and per entry expiry when ttl is on
+    private static final class FakeCache {
+        final Map<String, Integer> values = new ConcurrentHashMap<>();
+        final Map<String, Duration> ttls = new ConcurrentHashMap<>();
+        private final boolean ttl;
+
+        FakeCache(boolean ttl) {
+            this.ttl = ttl;
+        }
+
+        void put(String key, int value, Duration expiresAfter) {
+            values.put(key, value);
+            ttls.put(key, expiresAfter);
+        }
+
+        @SuppressWarnings("unchecked")
+        Cache<String, Integer> cache() {
+            Object expiration = proxy(Policy.VarExpiration.class, (method, args) -> switch (method) {
+                case "getExpiresAfter" -> {
+                    Duration remaining = ttls.get((String) args[0]);
+                    if (args.length == 1) {
+                        yield Optional.ofNullable(remaining);
+                    }
+                    yield remaining == null ? OptionalLong.empty() : OptionalLong.of(((TimeUnit) args[1]).convert(remaining));
+                }
+                case "putIfAbsent" -> {
+                    Duration expiresAfter = args.length == 3 ? (Duration) args[2] : Duration.of((long) args[2], ((TimeUnit) args[3]).toChronoUnit());
+                    Integer existing = values.putIfAbsent((String) args[0], (Integer) args[1]);
+                    if (existing == null) {
+                        ttls.put((String) args[0], expiresAfter);
+                    }
+                    yield existing;
+                }
+                default -> throw new UnsupportedOperationException(method);
+            });
+
+            Object policy = proxy(Policy.class, (method, args) -> switch (method) {
+                case "expireVariably" -> ttl ? Optional.of(expiration) : Optional.empty();
+                default -> throw new UnsupportedOperationException(method);
+            });
+
+            return (Cache<String, Integer>) proxy(Cache.class, (method, args) -> switch (method) {
+                case "asMap" -> values;
+                case "policy" -> policy;
+                default -> throw new UnsupportedOperationException(method);
+            });
+        }
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args);
+    }
+
+    private static Object proxy(Class<?> type, Handler handler) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> handler.handle(method.getName(), args == null ? new Object[0] : args));
+    }
+}
@@ -0,0 +1,171 @@
+package dev.hxrry.hxcore.cache;
+
+import dev.hxrry.hxcore.database.Database;
+import dev.hxrry.hxcore.database.QueryResult;
+import dev.hxrry.hxcore.database.SQLiteDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachedRepositoryTest {
+
+    private static final Logger LOGGER = Logger.getLogger("CachedRepositoryTest");
+
+    @TempDir
+    File folder;
+
+    private SQLiteDatabase database;
+    private CacheManager manager;
+
+    // runs once inside the next column values call, i.e. after a flush has taken its snapshot
+    private final AtomicReference<Runnable> midFlush = new AtomicReference<>();
+
+    static final class Home {
+        final String id;
+        String name;
+
+        Home(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = new SQLiteDatabase(folder, "homes", LOGGER);
+        database.connect();
+        database.updateAsync("CREATE TABLE homes (id TEXT PRIMARY KEY, name TEXT NOT NULL)").join();
+        manager = new CacheManager(LOGGER, false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.closeRepositories();
+        database.disconnect();
+    }
+
+    private CachedRepository<String, Home> repository(Integer maxSize) {
+        CachedRepository.Builder<String, Home> builder = manager.<String, Home>repository("homes", database)
+            .table("homes", "id")
+            .mapper(row -> new Home(row.getString("id"), row.getString("name")), home -> home.id)
+            .columns(List.of("name"), home -> {
+                Object[] values = { home.name };
+                Runnable hook = midFlush.getAndSet(null);
+                if (hook != null) {
+                    hook.run();
+                }
+                return values;
+            })
+            .writeBehind(1, TimeUnit.HOURS);
+        if (maxSize != null) {
+            builder.maximumSize(maxSize);
+        }
+        return builder.build();
+    }
+
+    private static String stored(Database database, String id) {
+        QueryResult result = database.queryAsync("SELECT name FROM homes WHERE id = ?", id).join();
+        return result.isEmpty() ? null : result.getString(0, "name");
+    }
+
+    @Test
+    void aValueResavedDuringAFlushStaysDirty() {
+        CachedRepository<String, Home> homes = repository(null);
+        Home spawn = new Home("spawn", "old");
+        homes.save(spawn);
+
+        midFlush.set(() -> {
+            spawn.name = "new";
+            homes.save(spawn);
+        });
+        homes.flush().join();
+
+        // the flush wrote what it snapshotted, the re-save is still waiting for the next one
+        assertEquals("old", stored(database, "spawn"));
+        assertEquals(1, homes.dirtyCount());
+
+        homes.flush().join();
+        assertEquals("new", stored(database, "spawn"));
+        assertEquals(0, homes.dirtyCount());
+    }
+
+    @Test
+    void aSaveAfterADeleteIsNotLost() {
+        CachedRepository<String, Home> homes = repository(null);
+        homes.save(new Home("spawn", "old"));
+
+        // delete queues behind the running flush, the save after it is newer and has to survive it
+        AtomicReference<CompletableFuture<Integer>> deleted = new AtomicReference<>();
+        midFlush.set(() -> {
+            deleted.set(homes.delete("spawn"));
+            homes.save(new Home("spawn", "rebuilt"));
+        });
+        homes.flush().join();
+        deleted.get().join();
+
+        assertEquals(1, homes.dirtyCount());
+        assertEquals("rebuilt", homes.getIfLoaded("spawn").name);
+
+        homes.flush().join();
+        assertEquals("rebuilt", stored(database, "spawn"));
+    }
+
+    @Test
+    void aDeleteDropsWhatWasSavedBeforeIt() {
+        CachedRepository<String, Home> homes = repository(null);
+        homes.save(new Home("spawn", "old"));
+
+        homes.delete("spawn").join();
+        homes.flush().join();
+
+        assertEquals(0, homes.dirtyCount());
+        assertNull(homes.getIfLoaded("spawn"));
+        assertNull(stored(database, "spawn"));
+    }
+
+    @Test
+    void aRowThatCantBeBuiltDoesNotHoldBackTheRest() {
+        CachedRepository<String, Home> homes = repository(null);
+        homes.save(new Home("spawn", "a"));
+        homes.save(new Home("market", "b"));
+
+        midFlush.set(() -> {
+            throw new IllegalStateException("broken value");
+        });
+        CompletionException failure = assertThrows(CompletionException.class, () -> homes.flush().join());
+
+        // whichever row hit the hook is dropped, the other one is written and the caller still hears about it
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+        assertEquals(0, homes.dirtyCount());
+        assertEquals(1, database.queryAsync("SELECT name FROM homes").join().size());
+    }
+
+    @Test
+    void evictingADirtyEntryWritesIt() throws InterruptedException {
+        CachedRepository<String, Home> homes = repository(1);
+        homes.save(new Home("spawn", "a"));
+        homes.save(new Home("market", "b"));
+        homes.getCache().synchronous().cleanUp();
+
+        // the removal listener runs on caffeine's executor, the interval is an hour so only it can flush
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (homes.dirtyCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, homes.dirtyCount());
+        assertEquals("a", stored(database, "spawn"));
+        assertEquals("b", stored(database, "market"));
+    }
+}
@@ -0,0 +1,166 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvalidationBusTest {
+
+    private static final Logger LOGGER = Logger.getLogger("InvalidationBusTest");
+
+    private record Pos(int x, int z) {}
+
+    @Test
+    void invalidateReachesThePeer() {
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        CacheManager sender = manager(transport);
+        CacheManager peer = manager(transport);
+
+        Cache<String, String> local = sender.createCache("names", null, null, 100);
+        Cache<String, String> remote = peer.createCache("names", null, null, 100);
+        local.put("a", "1");
+        remote.put("a", "1");
+        remote.put("b", "2");
+
+        sender.invalidate("names", "a");
+
+        assertNull(local.getIfPresent("a"));
+        assertNull(remote.getIfPresent("a"));
+        assertEquals("2", remote.getIfPresent("b"));
+    }
+
+    @Test
+    void clearCacheReachesThePeer() {
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        CacheManager sender = manager(transport);
+        CacheManager peer = manager(transport);
+
+        sender.createCache("names", null, null, 100);
+        Cache<String, String> remote = peer.createCache("names", null, null, 100);
+        Cache<String, String> other = peer.createCache("other", null, null, 100);
+        remote.put("a", "1");
+        remote.put("b", "2");
+        other.put("a", "1");
+
+        sender.clearCache("names");
+
+        assertEquals(0, remote.asMap().size());
+        assertEquals("1", other.getIfPresent("a"));
+    }
+
+    @Test
+    void theSenderSkipsItsOwnMessages() {
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        CacheManager sender = manager(transport);
+        CacheManager peer = manager(transport);
+        List<String> published = new ArrayList<>();
+        transport.subscribe(published::add);
+
+        Cache<String, String> local = sender.createCache("names", null, null, 100);
+        Cache<String, String> remote = peer.createCache("names", null, null, 100);
+        sender.invalidate("names", "a");
+        assertEquals(1, published.size());
+
+        // the same message again, only the peer acts on it
+        local.put("a", "1");
+        remote.put("a", "1");
+        transport.publish(published.get(0));
+
+        assertEquals("1", local.getIfPresent("a"));
+        assertNull(remote.getIfPresent("a"));
+    }
+
+    @Test
+    void keysComeBackAsTheirOwnType() {
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        CacheManager sender = manager(transport);
+        CacheManager peer = manager(transport);
+
+        UUID id = UUID.randomUUID();
+        Cache<Object, String> remote = peer.createCache("mixed", null, null, 100);
+        sender.createCache("mixed", null, null, 100);
+        remote.put(id, "uuid");
+        remote.put(5, "int");
+        remote.put(5L, "long");
+        remote.put("5", "string");
+        remote.put(new Pos(1, 2), "pos");
+        remote.put(new Pos(3, 4), "other pos");
+
+        sender.invalidate("mixed", id);
+        sender.invalidate("mixed", 5);
+        assertNull(remote.getIfPresent(id));
+        assertNull(remote.getIfPresent(5));
+        assertEquals("long", remote.getIfPresent(5L));
+        assertEquals("string", remote.getIfPresent("5"));
+
+        sender.invalidate("mixed", 5L);
+        sender.invalidate("mixed", "5");
+        assertNull(remote.getIfPresent(5L));
+        assertNull(remote.getIfPresent("5"));
+
+        // not a type the bus can rebuild, matched on toString
+        sender.invalidate("mixed", new Pos(1, 2));
+        assertNull(remote.getIfPresent(new Pos(1, 2)));
+        assertEquals("other pos", remote.getIfPresent(new Pos(3, 4)));
+    }
+
+    @Test
+    void messagesStayUnderTheNotifyByteLimit() {
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        CacheManager sender = manager(transport);
+        CacheManager peer = manager(transport);
+        List<String> published = new ArrayList<>();
+        transport.subscribe(published::add);
+
+        // 3 bytes a char in utf-8, so a char count limit would let these through at ~3x the size
+        Cache<String, String> remote = peer.createCache("names", null, null, 1000);
+        sender.createCache("names", null, null, 1000);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String key = "名前".repeat(20) + i;
+            keys.add(key);
+            remote.put(key, "x");
+        }
+
+        sender.publishInvalidation("names", keys);
+
+        assertTrue(published.size() > 1);
+        for (String message : published) {
+            assertTrue(message.getBytes(StandardCharsets.UTF_8).length < 8000);
+        }
+        assertEquals(0, remote.asMap().size());
+    }
+
+    @Test
+    void aKeyTooBigForAMessageClearsTheCacheOnPeers() {
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        CacheManager sender = manager(transport);
+        CacheManager peer = manager(transport);
+        List<String> published = new ArrayList<>();
+        transport.subscribe(published::add);
+
+        Cache<String, String> remote = peer.createCache("names", null, null, 100);
+        sender.createCache("names", null, null, 100);
+        remote.put("other", "x");
+
+        sender.invalidate("names", "名".repeat(3000));
+
+        assertEquals(1, published.size());
+        assertTrue(published.get(0).endsWith("|names|*"));
+        assertEquals(0, remote.asMap().size());
+    }
+
+    private static CacheManager manager(InvalidationTransport transport) {
+        CacheManager manager = new CacheManager(LOGGER, false);
+        manager.attachInvalidationBus(transport);
+        return manager;
+    }
+}
@@ -0,0 +1,28 @@
+package dev.hxrry.hxcore.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalInvalidationTransportTest {
+
+    @Test
+    void unsubscribeOnlyRemovesThatListener() {
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+
+        InvalidationTransport.Subscription subscription = transport.subscribe(first::add);
+        transport.subscribe(second::add);
+        transport.publish("a");
+
+        subscription.unsubscribe();
+        transport.publish("b");
+
+        assertIterableEquals(List.of("a"), first);
+        assertIterableEquals(List.of("a", "b"), second);
+    }
+}
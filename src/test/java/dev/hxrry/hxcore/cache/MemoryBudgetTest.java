@@ -0,0 +1,147 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryBudgetTest {
+
+    private static final long NO_CAP = Long.MAX_VALUE;
+
+    @Test
+    void noTrafficSplitsEvenly() {
+        long[] targets = MemoryBudget.split(3000, new double[] {0, 0, 0}, new long[] {NO_CAP, NO_CAP, NO_CAP});
+
+        assertArrayEquals(new long[] {1000, 1000, 1000}, targets);
+    }
+
+    @Test
+    void aboveTheFloorGoesByScore() {
+        // floor is a tenth of an even split, 50 each, the other 900 goes 3:1
+        long[] targets = MemoryBudget.split(1000, new double[] {3, 1}, new long[] {NO_CAP, NO_CAP});
+
+        assertArrayEquals(new long[] {725, 275}, targets);
+    }
+
+    @Test
+    void idleCachesKeepTheFloor() {
+        long[] targets = MemoryBudget.split(1000, new double[] {5, 0}, new long[] {NO_CAP, NO_CAP});
+
+        assertArrayEquals(new long[] {950, 50}, targets);
+    }
+
+    @Test
+    void cappedCachesGiveTheirSurplusToTheRest() {
+        // an even third would be 1000, but the last cache only needs 200
+        long[] targets = MemoryBudget.split(3000, new double[] {1, 1, 1}, new long[] {NO_CAP, NO_CAP, 200});
+
+        assertArrayEquals(new long[] {1400, 1400, 200}, targets);
+    }
+
+    @Test
+    void capsCascadeAcrossRounds() {
+        // the first round only caps the last cache, its surplus then pushes the middle one past its cap too
+        long[] targets = MemoryBudget.split(10_000, new double[] {1, 1, 1}, new long[] {NO_CAP, 4000, 500});
+
+        assertEquals(500, targets[2]);
+        assertEquals(4000, targets[1]);
+        assertEquals(5500, targets[0]);
+    }
+
+    @Test
+    void targetsNeverAddUpPastTheTotal() {
+        Random random = new Random(7);
+
+        for (int run = 0; run < 1000; run++) {
+            int count = 1 + random.nextInt(8);
+            long total = 1 + random.nextInt(1_000_000);
+            double[] scores = new double[count];
+            long[] caps = new long[count];
+            for (int i = 0; i < count; i++) {
+                scores[i] = random.nextInt(4) == 0 ? 0 : random.nextDouble() * 10_000;
+                caps[i] = random.nextBoolean() ? NO_CAP : 1 + random.nextInt((int) total);
+            }
+
+            long[] targets = MemoryBudget.split(total, scores, caps);
+
+            long floor = Math.max(1, total / (count * 10L));
+            assertTrue(Arrays.stream(targets).sum() <= Math.max(total, floor * count), "run " + run);
+            for (long target : targets) {
+                assertTrue(target >= floor, "run " + run);
+            }
+        }
+    }
+
+    @Test
+    void rebalanceJumpsForNewcomersThenMovesHalfway() {
+        long[] maximum = {1, 1};
+        long[] weight = {900, 100};
+        Map<String, Cache<?, ?>> caches = new LinkedHashMap<>();
+        caches.put("hot", weighted(0, maximum, weight));
+        caches.put("cold", weighted(1, maximum, weight));
+        MemoryBudget budget = new MemoryBudget(2000, Logger.getLogger("MemoryBudgetTest"));
+
+        // first time round there's nothing to smooth from
+        budget.rebalance(caches, Map.of());
+        assertArrayEquals(new long[] {1000, 1000}, maximum);
+
+        // hot is evicting for size, cold isn't and gets capped at twice what it holds
+        Map<String, CacheMetrics.Sample> samples = Map.of(
+            "hot", sample("hot", 900, maximum[0], 10_000, 0.5, Map.of(RemovalCause.SIZE, 500L)),
+            "cold", sample("cold", 100, maximum[1], 10_000, 0.99, Map.of()));
+        budget.rebalance(caches, samples);
+
+        // targets are 1800 / 200, each maximum moves halfway there
+        assertArrayEquals(new long[] {1400, 600}, maximum);
+        assertTrue(maximum[0] + maximum[1] <= 2000);
+    }
+
+    private static CacheMetrics.Sample sample(String name, long weight, long maximum, long requests, double hitRate,
+                                              Map<RemovalCause, Long> evictions) {
+        return new CacheMetrics.Sample(name, 0, weight, maximum, true, requests, hitRate, evictions, 0, 0, 0, 0);
+    }
+
+    // a weighted cache as far as the budget can see it, maximum and weight live in the arrays
+    private static Cache<?, ?> weighted(int index, long[] maximum, long[] weight) {
+        Object eviction = proxy(Policy.Eviction.class, (method, args) -> switch (method) {
+            case "isWeighted" -> true;
+            case "weightedSize" -> OptionalLong.of(weight[index]);
+            case "getMaximum" -> maximum[index];
+            case "setMaximum" -> {
+                maximum[index] = (Long) args[0];
+                yield null;
+            }
+            default -> throw new UnsupportedOperationException(method);
+        });
+        Object policy = proxy(Policy.class, (method, args) -> switch (method) {
+            case "eviction" -> Optional.of(eviction);
+            default -> throw new UnsupportedOperationException(method);
+        });
+        return (Cache<?, ?>) proxy(Cache.class, (method, args) -> switch (method) {
+            case "policy" -> policy;
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args);
+    }
+
+    private static Object proxy(Class<?> type, Handler handler) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> handler.handle(method.getName(), args == null ? new Object[0] : args));
+    }
+}
@@ -0,0 +1,200 @@
+package dev.hxrry.hxcore.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapTierTest {
+
+    private static final Logger LOGGER = Logger.getLogger("OffHeapTierTest");
+    private static final int PAGE = 64 * 1024;
+
+    @Test
+    void chunksAreRoundedUpToTheirClass() {
+        OffHeapTier<String, byte[]> tier = tier(16L * 1024 * 1024, null);
+
+        assertTrue(tier.put("a", bytes(60))); // 64 encoded, exactly one 64B chunk
+        assertTrue(tier.put("b", bytes(61))); // 65 encoded, a 128B chunk
+        assertTrue(tier.put("c", bytes(1000))); // 1004 encoded, 1KB
+
+        assertEquals(3, tier.size());
+        assertEquals(64 + 128 + 1024, tier.getUsedBytes());
+        // one 1MB page per class touched
+        assertEquals(3L * 1024 * 1024, tier.getReservedBytes());
+        assertEquals(16L * 1024 * 1024, tier.getCapacityBytes());
+    }
+
+    @Test
+    void takeHandsTheChunkBackForReuse() {
+        OffHeapTier<String, byte[]> tier = tier(16L * 1024 * 1024, null);
+        tier.put("a", bytes(100));
+        long reserved = tier.getReservedBytes();
+
+        byte[] value = tier.take("a");
+        assertEquals(100, value.length);
+        assertEquals(7, value[7]);
+        assertEquals(0, tier.size());
+        assertEquals(0, tier.getUsedBytes());
+        assertNull(tier.take("a"));
+        assertEquals(1, tier.getHitCount());
+        assertEquals(1, tier.getMissCount());
+
+        // same class again, no new page
+        tier.put("b", bytes(100));
+        assertEquals(reserved, tier.getReservedBytes());
+        assertEquals(128, tier.getUsedBytes());
+    }
+
+    @Test
+    void replacingAKeyFreesItsOldChunk() {
+        OffHeapTier<String, byte[]> tier = tier(16L * 1024 * 1024, null);
+        tier.put("a", bytes(1000));
+        tier.put("a", bytes(10));
+
+        assertEquals(1, tier.size());
+        assertEquals(64, tier.getUsedBytes());
+        assertEquals(10, tier.take("a").length);
+    }
+
+    @Test
+    void aFullClassRecyclesItsLeastRecentlyUsedChunk() {
+        // one 64KB page, so 1024 chunks of 64B
+        OffHeapTier<Integer, byte[]> tier = tier(PAGE, null);
+        for (int i = 0; i <= 1024; i++) {
+            assertTrue(tier.put(i, bytes(60)));
+        }
+
+        assertEquals(1024, tier.size());
+        assertEquals(PAGE, tier.getUsedBytes());
+        assertEquals(PAGE, tier.getReservedBytes());
+        assertNull(tier.take(0));
+        assertNotNull(tier.take(1024));
+    }
+
+    @Test
+    void valuesBiggerThanAPageAreRejected() {
+        OffHeapTier<String, byte[]> tier = tier(PAGE, null);
+
+        assertFalse(tier.put("big", bytes(PAGE)));
+
+        assertEquals(1, tier.getRejectedCount());
+        assertEquals(0, tier.size());
+        assertEquals(0, tier.getReservedBytes());
+    }
+
+    @Test
+    void aClassWithNoPageTakesOneFromTheBiggestClass() {
+        // 16 pages of 64KB, all of them taken by the 64B class
+        OffHeapTier<Integer, byte[]> tier = tier(16L * PAGE, null);
+        for (int i = 0; i < 16 * 1024; i++) {
+            assertTrue(tier.put(i, bytes(60)));
+        }
+        assertEquals(16L * PAGE, tier.getReservedBytes());
+
+        // the 128B class still gets a page, the one holding the oldest small entries
+        assertTrue(tier.put(-1, bytes(100)));
+        assertEquals(1, tier.getReassignedPageCount());
+        assertEquals(15 * 1024 + 1, tier.size());
+        assertEquals(16L * PAGE, tier.getReservedBytes());
+        assertEquals(15L * PAGE + 128, tier.getUsedBytes());
+
+        assertNull(tier.take(0));
+        assertNotNull(tier.take(16 * 1024 - 1));
+        assertEquals(100, tier.take(-1).length);
+        assertEquals(0, tier.getRejectedCount());
+    }
+
+    @Test
+    void capacityBelowOnePageIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> tier(PAGE - 1, null));
+    }
+
+    @Test
+    void expiredEntriesAreMissesAndStillFreed() throws InterruptedException {
+        OffHeapTier<String, byte[]> tier = tier(PAGE, Duration.ofMillis(1));
+        tier.put("a", bytes(60));
+        Thread.sleep(5);
+
+        assertNull(tier.take("a"));
+        assertEquals(1, tier.getMissCount());
+        assertEquals(0, tier.getUsedBytes());
+    }
+
+    @Test
+    void clearReleasesEverything() {
+        OffHeapTier<String, byte[]> tier = tier(16L * 1024 * 1024, null);
+        tier.put("a", bytes(60));
+        tier.put("b", bytes(5000));
+        tier.removeIf(key -> key.equals("a"));
+        assertEquals(1, tier.size());
+
+        tier.clear();
+        assertEquals(0, tier.size());
+        assertEquals(0, tier.getUsedBytes());
+        assertEquals(0, tier.getReservedBytes());
+
+        // and a fresh arena after
+        assertTrue(tier.put("c", bytes(60)));
+        assertEquals(60, tier.take("c").length);
+    }
+
+    @Test
+    void aWriteThroughTheRawCacheDropsTheDemotedCopy() {
+        CacheManager manager = new CacheManager(LOGGER, false);
+        Cache<String, String> cache = manager.<String, String>builder("big")
+            .maximumSize(1)
+            .offHeap(CacheCodec.strings(), PAGE)
+            .build();
+        OffHeapTier<String, String> tier = manager.getOffHeapTier("big");
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.cleanUp();
+        assertEquals(1, tier.size());
+        String demoted = cache.asMap().containsKey("a") ? "b" : "a";
+        String stale = demoted.equals("a") ? "1" : "2";
+
+        // the plugin's own handle, not CacheManager.put. the size limit may push "new" (or the other key)
+        // down a tier in turn, but the stale copy has to be gone
+        cache.put(demoted, "new");
+        cache.invalidate(demoted);
+        cache.cleanUp();
+        assertNotEquals(stale, manager.getIfPresent("big", demoted));
+    }
+
+    private static <K> OffHeapTier<K, byte[]> tier(long capacity, Duration ttl) {
+        return new OffHeapTier<>("test", new BytesCodec(), capacity, ttl, LOGGER);
+    }
+
+    // encodes to 4 + length bytes
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static final class BytesCodec implements CacheCodec<byte[]> {
+        @Override
+        public void encode(byte[] value, DataOutput out) throws IOException {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        @Override
+        public byte[] decode(DataInput in) throws IOException {
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dev.hxrry.hxcore.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrimitiveKeyCacheTest {
+
+    // maxSize 8 is one segment with a 16 slot table
+    private static final int MASK = 15;
+
+    @Test
+    void removingFromTheMiddleOfAProbeRunKeepsTheRestReachable() {
+        LongKeyCache<String> cache = new LongKeyCache<>("test", 8, null);
+
+        // four keys with the same home slot make one run, a fifth homed just after it gets pushed to its end
+        List<Long> run = keysHomedAt(3, 4);
+        long neighbour = keysHomedAt(4, 1).get(0);
+        for (long key : run) {
+            cache.put(key, "v" + key);
+        }
+        cache.put(neighbour, "n");
+
+        cache.invalidate(run.get(1));
+        assertNull(cache.getIfPresent(run.get(1)));
+        assertEquals("v" + run.get(0), cache.getIfPresent(run.get(0)));
+        assertEquals("v" + run.get(2), cache.getIfPresent(run.get(2)));
+        assertEquals("v" + run.get(3), cache.getIfPresent(run.get(3)));
+        assertEquals("n", cache.getIfPresent(neighbour));
+
+        cache.invalidate(run.get(0));
+        cache.invalidate(run.get(3));
+        assertEquals("v" + run.get(2), cache.getIfPresent(run.get(2)));
+        assertEquals("n", cache.getIfPresent(neighbour));
+        assertEquals(2, cache.estimatedSize());
+    }
+
+    @Test
+    void runsThatWrapPastTheEndShiftBackCorrectly() {
+        LongKeyCache<String> cache = new LongKeyCache<>("test", 8, null);
+
+        List<Long> run = keysHomedAt(MASK, 3); // slots 15, 0, 1
+        long wrapped = keysHomedAt(0, 1).get(0); // home 0 but lands on 2
+        for (long key : run) {
+            cache.put(key, "v" + key);
+        }
+        cache.put(wrapped, "w");
+
+        cache.invalidate(run.get(0));
+        assertEquals("v" + run.get(1), cache.getIfPresent(run.get(1)));
+        assertEquals("v" + run.get(2), cache.getIfPresent(run.get(2)));
+        assertEquals("w", cache.getIfPresent(wrapped));
+    }
+
+    @Test
+    void matchesAMapUnderRandomPutsAndRemoves() {
+        // big enough that nothing gets evicted, so the cache should hold exactly what the map does
+        LongKeyCache<Long> cache = new LongKeyCache<>("test", 4096, null);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            long key = random.nextInt(2048);
+            if (random.nextInt(3) == 0) {
+                cache.invalidate(key);
+                expected.remove(key);
+            } else {
+                cache.put(key, (long) i);
+                expected.put(key, (long) i);
+            }
+        }
+
+        cache.invalidateIf(key -> key % 7 == 0);
+        expected.keySet().removeIf(key -> key % 7 == 0);
+
+        assertEquals(expected.size(), cache.estimatedSize());
+        for (long key = 0; key < 2048; key++) {
+            assertEquals(expected.get(key), cache.getIfPresent(key), "key " + key);
+        }
+    }
+
+    @Test
+    void clockEvictsAnUnreferencedEntryFirst() {
+        LongKeyCache<String> cache = new LongKeyCache<>("test", 4, null);
+        for (long key = 1; key <= 4; key++) {
+            cache.put(key, "v" + key);
+        }
+
+        // 1 and 2 get a second chance, one of 3 and 4 has to go
+        cache.getIfPresent(1);
+        cache.getIfPresent(2);
+        cache.put(5, "v5");
+
+        assertEquals(4, cache.estimatedSize());
+        assertEquals(1, cache.stats().evictionCount());
+        assertEquals("v1", cache.getIfPresent(1));
+        assertEquals("v2", cache.getIfPresent(2));
+        assertEquals("v5", cache.getIfPresent(5));
+        assertTrue((cache.getIfPresent(3) == null) != (cache.getIfPresent(4) == null));
+    }
+
+    @Test
+    void clockGivesEveryoneASecondChanceBeforeEvicting() {
+        LongKeyCache<String> cache = new LongKeyCache<>("test", 4, null);
+        for (long key = 1; key <= 4; key++) {
+            cache.put(key, "v" + key);
+            cache.getIfPresent(key);
+        }
+
+        // all referenced, the hand clears every bit on its first lap and evicts on the second
+        cache.put(5, "v5");
+
+        assertEquals(4, cache.estimatedSize());
+        assertEquals(1, cache.stats().evictionCount());
+        assertEquals("v5", cache.getIfPresent(5));
+    }
+
+    @Test
+    void uuidKeysUseBothHalves() {
+        UuidKeyCache<String> cache = new UuidKeyCache<>("test", 8, null);
+        UUID a = new UUID(1, 2);
+        UUID b = new UUID(2, 2); // same low half
+
+        cache.put(a, "a");
+        cache.put(b, "b");
+
+        assertEquals("a", cache.getIfPresent(a));
+        assertNull(cache.getIfPresent(new UUID(3, 2)));
+        assertEquals("b", cache.getIfPresent(b.getMostSignificantBits(), b.getLeastSignificantBits()));
+    }
+
+    private static List<Long> keysHomedAt(int slot, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; key++) {
+            if (((int) PrimitiveKeyCache.hash(0, key) & MASK) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,61 @@
+package dev.hxrry.hxcore.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    void unboundedStillCountsWhatRuns() {
+        AdmissionControl admission = AdmissionControl.unbounded();
+
+        for (int i = 0; i < 1000; i++) {
+            admission.submit(() -> 1, DIRECT).join();
+        }
+        int seen = admission.submit(admission::getRunning, DIRECT).join();
+
+        assertEquals(1, seen);
+        assertEquals(1001, admission.getAdmittedCount());
+        assertEquals(0, admission.getRunning());
+        assertEquals(0, admission.getQueueDepth());
+    }
+
+    @Test
+    void callerRunsAreCountedAsRunning() {
+        // no queue at all, so every task is over the limit
+        AdmissionControl admission = new AdmissionControl(1, 0, Duration.ofSeconds(1), AdmissionControl.OverloadPolicy.CALLER_RUNS);
+        Thread caller = Thread.currentThread();
+
+        CompletableFuture<Boolean> onCaller = admission.submit(() -> Thread.currentThread() == caller, DIRECT);
+        CompletableFuture<Integer> running = admission.submit(admission::getRunning, DIRECT);
+
+        assertTrue(onCaller.join());
+        assertEquals(1, (int) running.join());
+        assertEquals(2, admission.getCallerRunsCount());
+        assertEquals(2, admission.getAdmittedCount());
+        assertEquals(0, admission.getRejectedCount());
+        assertEquals(0, admission.getRunning());
+    }
+
+    @Test
+    void rejectPolicyFailsTheFuture() {
+        AdmissionControl admission = new AdmissionControl(1, 0, Duration.ofSeconds(1), AdmissionControl.OverloadPolicy.REJECT);
+
+        CompletableFuture<Integer> future = admission.submit(() -> 1, DIRECT);
+
+        assertTrue(future.isCompletedExceptionally());
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, admission.getRejectedCount());
+        assertEquals(0, admission.getAdmittedCount());
+    }
+}
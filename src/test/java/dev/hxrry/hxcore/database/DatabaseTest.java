@@ -0,0 +1,47 @@
+package dev.hxrry.hxcore.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseTest {
+
+    @Test
+    void plainReadsCanUseAReader() {
+        assertTrue(Database.isReadOnly("SELECT * FROM players WHERE uuid = ?"));
+        assertTrue(Database.isReadOnly("  select count(*) from homes"));
+        assertTrue(Database.isReadOnly("-- lookup\n/* by name */ (SELECT 1)"));
+        assertTrue(Database.isReadOnly("WITH top AS (SELECT * FROM scores) SELECT * FROM top"));
+        assertTrue(Database.isReadOnly("VALUES (1), (2)"));
+    }
+
+    @Test
+    void anythingThatWritesGoesToThePrimary() {
+        assertFalse(Database.isReadOnly("INSERT INTO homes (name) VALUES (?) RETURNING id"));
+        assertFalse(Database.isReadOnly("update homes set name = ? where id = ? returning *"));
+        assertFalse(Database.isReadOnly("DELETE FROM homes WHERE id = ? RETURNING name"));
+        assertFalse(Database.isReadOnly("SELECT * FROM homes WHERE id = ? FOR UPDATE"));
+        assertFalse(Database.isReadOnly("WITH gone AS (DELETE FROM homes RETURNING *) SELECT count(*) FROM gone"));
+        assertFalse(Database.isReadOnly("PRAGMA optimize"));
+        assertFalse(Database.isReadOnly(""));
+    }
+
+    @Test
+    void selectsAStandbyWouldRejectGoToThePrimary() {
+        assertFalse(Database.isReadOnly("SELECT nextval('homes_id_seq')"));
+        assertFalse(Database.isReadOnly("SELECT setval('homes_id_seq', 10)"));
+        assertFalse(Database.isReadOnly("SELECT pg_advisory_lock(42)"));
+        assertFalse(Database.isReadOnly("SELECT pg_try_advisory_xact_lock(42)"));
+        assertFalse(Database.isReadOnly("SELECT pg_notify('cache', 'x')"));
+        assertFalse(Database.isReadOnly("SELECT * FROM homes WHERE id = ? FOR SHARE"));
+        assertFalse(Database.isReadOnly("SELECT * FROM homes WHERE id = ? FOR KEY SHARE"));
+        assertFalse(Database.isReadOnly("SELECT * FROM homes WHERE id = ? FOR NO KEY UPDATE"));
+        assertFalse(Database.isReadOnly("SELECT * INTO homes_backup FROM homes"));
+    }
+
+    @Test
+    void columnNamesAreNotMistakenForKeywords() {
+        assertTrue(Database.isReadOnly("SELECT last_update, deleted_at FROM homes"));
+        assertTrue(Database.isReadOnly("SELECT into_world, shared, next_value FROM homes"));
+    }
+}
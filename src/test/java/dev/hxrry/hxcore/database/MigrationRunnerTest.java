@@ -0,0 +1,68 @@
+package dev.hxrry.hxcore.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MigrationRunnerTest {
+
+    @Test
+    void splitsOnSemicolons() {
+        assertIterableEquals(
+            List.of("CREATE TABLE a (id INT)", "CREATE INDEX a_id ON a (id)"),
+            MigrationRunner.splitStatements("CREATE TABLE a (id INT);\n\nCREATE INDEX a_id ON a (id);\n"));
+    }
+
+    @Test
+    void keepsSemicolonsInQuotes() {
+        assertIterableEquals(
+            List.of("INSERT INTO a VALUES ('x;y', 'it''s;')", "CREATE TABLE \"b;c\" (id INT)"),
+            MigrationRunner.splitStatements("INSERT INTO a VALUES ('x;y', 'it''s;'); CREATE TABLE \"b;c\" (id INT);"));
+    }
+
+    @Test
+    void dropsComments() {
+        List<String> statements = MigrationRunner.splitStatements(
+            "-- first; not a statement\nCREATE TABLE a (id INT); /* one; /* nested; */ still; */ DROP TABLE b;");
+
+        assertEquals(2, statements.size());
+        assertEquals("CREATE TABLE a (id INT)", statements.get(0));
+        assertEquals("DROP TABLE b", statements.get(1));
+    }
+
+    @Test
+    void keepsDollarQuotedBodiesWhole() {
+        String function = """
+            CREATE FUNCTION touch() RETURNS trigger AS $$
+            BEGIN
+                NEW.updated_at := now();
+                RETURN NEW;
+            END;
+            $$ LANGUAGE plpgsql""";
+        String tagged = "DO $body$ BEGIN PERFORM 1; RAISE NOTICE '$$;'; END $body$";
+
+        List<String> statements = MigrationRunner.splitStatements(function + ";\n" + tagged + ";\nSELECT 1;");
+
+        assertIterableEquals(List.of(function, tagged, "SELECT 1"), statements);
+    }
+
+    @Test
+    void parametersAndIdentifierDollarsAreNotTags() {
+        assertIterableEquals(
+            List.of("SELECT $1, a$b$ FROM t", "SELECT 2"),
+            MigrationRunner.splitStatements("SELECT $1, a$b$ FROM t; SELECT 2;"));
+    }
+
+    @Test
+    void noSplitRunsTheFileAsOneStatement() {
+        String trigger = MigrationRunner.NO_SPLIT + """
+
+            CREATE TRIGGER touch AFTER UPDATE ON a BEGIN
+                UPDATE a SET updated_at = 1 WHERE id = NEW.id;
+            END;""";
+
+        assertIterableEquals(List.of(trigger), MigrationRunner.splitStatements("\n" + trigger + "\n"));
+    }
+}
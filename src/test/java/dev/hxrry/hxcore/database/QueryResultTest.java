@@ -0,0 +1,148 @@
+package dev.hxrry.hxcore.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryResultTest {
+
+    @Test
+    void primitiveColumnsRoundTrip() throws Exception {
+        QueryResult result = new QueryResult(resultSet("PostgreSQL",
+            new String[] {"id", "balance", "score", "name"},
+            new int[] {Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.VARCHAR},
+            row(1, 10_000_000_000L, 1.5, "a"),
+            row(null, null, null, null),
+            row(3, 30L, 2.25, "c")));
+
+        assertEquals(3, result.size());
+        assertEquals(1, result.getInt(0, "id"));
+        assertEquals(10_000_000_000L, result.getLong(0, "balance"));
+        assertEquals(1.5, result.getDouble(0, "score"));
+        assertEquals("a", result.getString(0, "name"));
+
+        assertTrue(result.isNull(1, 0));
+        assertNull(result.getObject(1, "balance"));
+        assertEquals(0, result.getInt(1, "id")); // jdbc style null
+
+        assertEquals(3, result.getObject(2, "id"));
+        assertEquals(30L, result.getObject(2, "balance"));
+    }
+
+    @Test
+    void intColumnWidensWhenAValueDoesNotFit() throws Exception {
+        QueryResult result = new QueryResult(resultSet("PostgreSQL",
+            new String[] {"n"}, new int[] {Types.INTEGER},
+            row(1), row(5_000_000_000L), row((Object) null)));
+
+        assertEquals(1, result.getObject(0, "n"));
+        assertEquals(5_000_000_000L, result.getObject(1, "n"));
+        assertNull(result.getObject(2, "n"));
+    }
+
+    @Test
+    void sqliteKeepsValuesThatDoNotMatchTheDeclaredType() throws Exception {
+        QueryResult result = new QueryResult(resultSet("SQLite",
+            new String[] {"n", "r", "b"}, new int[] {Types.INTEGER, Types.DOUBLE, Types.BIGINT},
+            row(7, 1.0, 5_000_000_000L), row("seven", 2, 3), row(1.5, "x", 4L)));
+
+        assertEquals(7, result.getObject(0, "n"));
+        assertEquals("seven", result.getObject(1, "n"));
+        assertEquals(1.5, result.getObject(2, "n"));
+
+        assertEquals(1.0, result.getObject(0, "r"));
+        assertEquals(2, result.getObject(1, "r"));
+        assertEquals("x", result.getObject(2, "r"));
+
+        assertEquals(5_000_000_000L, result.getObject(0, "b"));
+        assertEquals(3, result.getObject(1, "b"));
+        assertEquals(4L, result.getObject(2, "b"));
+        assertEquals(3L, result.getLong(1, "b"));
+
+        QueryResult small = new QueryResult(resultSet("SQLite",
+            new String[] {"b"}, new int[] {Types.BIGINT}, row(3)));
+        assertEquals(3, small.getValue("b", Integer.class).orElseThrow());
+    }
+
+    @Test
+    void firstAndAllAreMutableCopies() throws Exception {
+        QueryResult result = new QueryResult(resultSet("PostgreSQL",
+            new String[] {"id"}, new int[] {Types.INTEGER}, row(1), row(2)));
+
+        Map<String, Object> first = result.first().orElseThrow();
+        first.put("extra", true);
+        assertEquals(Map.of("id", 1, "extra", true), first);
+        assertFalse(result.first().orElseThrow().containsKey("extra"));
+
+        List<Map<String, Object>> all = result.all();
+        all.get(1).remove("id");
+        assertEquals(2, result.getInt(1, "id"));
+        assertEquals(Map.of("id", 1), all.get(0));
+    }
+
+    @Test
+    void getValueChecksTheType() throws Exception {
+        QueryResult result = new QueryResult(resultSet("PostgreSQL",
+            new String[] {"name"}, new int[] {Types.VARCHAR}, row("x")));
+
+        assertEquals("x", result.getValue("name", String.class).orElseThrow());
+        assertTrue(result.getValue("name", Integer.class).isEmpty());
+        assertTrue(result.getValue("missing", String.class).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> result.getInt(0, "missing"));
+        assertThrows(IndexOutOfBoundsException.class, () -> result.getInt(1, 0));
+    }
+
+    private static Object[] row(Object... values) {
+        return values;
+    }
+
+    // just enough of a jdbc result set for QueryResult, values come back as a driver's getObject would give them
+    private static ResultSet resultSet(String product, String[] names, int[] types, Object[]... rows) {
+        ClassLoader loader = QueryResultTest.class.getClassLoader();
+
+        DatabaseMetaData databaseMeta = (DatabaseMetaData) Proxy.newProxyInstance(loader, new Class<?>[] {DatabaseMetaData.class},
+            (proxy, method, args) -> method.getName().equals("getDatabaseProductName") ? product : null);
+        Connection connection = (Connection) Proxy.newProxyInstance(loader, new Class<?>[] {Connection.class},
+            (proxy, method, args) -> method.getName().equals("getMetaData") ? databaseMeta : null);
+        Statement statement = (Statement) Proxy.newProxyInstance(loader, new Class<?>[] {Statement.class},
+            (proxy, method, args) -> method.getName().equals("getConnection") ? connection : null);
+
+        ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(loader, new Class<?>[] {ResultSetMetaData.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "getColumnCount" -> names.length;
+                case "getColumnName", "getColumnLabel" -> names[(int) args[0] - 1];
+                case "getColumnType" -> types[(int) args[0] - 1];
+                default -> null;
+            });
+
+        int[] cursor = {-1};
+        Object[] last = {null};
+        return (ResultSet) Proxy.newProxyInstance(loader, new Class<?>[] {ResultSet.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "getMetaData" -> meta;
+                case "getStatement" -> statement;
+                case "next" -> ++cursor[0] < rows.length;
+                case "wasNull" -> last[0] == null;
+                case "getObject" -> last[0] = rows[cursor[0]][(int) args[0] - 1];
+                case "getLong" -> {
+                    last[0] = rows[cursor[0]][(int) args[0] - 1];
+                    yield last[0] == null ? 0L : ((Number) last[0]).longValue();
+                }
+                case "getDouble" -> {
+                    last[0] = rows[cursor[0]][(int) args[0] - 1];
+                    yield last[0] == null ? 0.0 : ((Number) last[0]).doubleValue();
+                }
+                default -> null;
+            });
+    }
+}
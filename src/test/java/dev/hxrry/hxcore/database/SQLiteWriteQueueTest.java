@@ -0,0 +1,136 @@
+package dev.hxrry.hxcore.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SQLiteWriteQueueTest {
+
+    private static final Logger LOGGER = Logger.getLogger("SQLiteWriteQueueTest");
+    private static final String INSERT = "INSERT INTO homes (id, name) VALUES (?, ?)";
+
+    @TempDir
+    File folder;
+
+    private String url;
+    private final QueryMetrics metrics = new QueryMetrics(LOGGER);
+    private final StatementCache statements = new StatementCache(0);
+    private SQLiteWriteQueue queue;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        url = "jdbc:sqlite:" + new File(folder, "queue.db").getAbsolutePath();
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE homes (id INTEGER PRIMARY KEY, name TEXT NOT NULL)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    private CompletableFuture<Integer> insert(int id, String name) {
+        return queue.submit(INSERT, new Object[] { id, name }, metrics.start(INSERT));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(*) FROM homes")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    void waitingWritesCommitTogetherAndABadOneOnlyFailsItself() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger groups = new AtomicInteger();
+
+        // the first group holds the writer until everything else is queued behind it
+        queue = new SQLiteWriteQueue("test", () -> {
+            if (groups.incrementAndGet() == 1) {
+                entered.countDown();
+                awaitQuietly(release);
+            }
+            return DriverManager.getConnection(url);
+        }, statements::prepare, LOGGER);
+
+        CompletableFuture<Integer> first = insert(1, "spawn");
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        List<CompletableFuture<Integer>> burst = new ArrayList<>();
+        for (int id = 2; id <= 10; id++) {
+            burst.add(insert(id, "home" + id));
+        }
+        CompletableFuture<Integer> duplicate = insert(1, "again");
+        CompletableFuture<Integer> missingName = insert(11, null);
+        release.countDown();
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<Integer> write : burst) {
+            assertEquals(1, write.get(5, TimeUnit.SECONDS));
+        }
+        assertThrows(CompletionException.class, duplicate::join);
+        assertThrows(CompletionException.class, missingName::join);
+
+        // one group for the first write, one for the whole burst
+        assertEquals(2, groups.get());
+        assertEquals(10, count());
+    }
+
+    @Test
+    void theWriterKeepsGoingAfterAGroupFails() throws Exception {
+        AtomicInteger groups = new AtomicInteger();
+        queue = new SQLiteWriteQueue("test", () -> {
+            if (groups.incrementAndGet() == 1) {
+                throw new SQLException("database is locked");
+            }
+            return DriverManager.getConnection(url);
+        }, statements::prepare, LOGGER);
+
+        assertThrows(CompletionException.class, () -> insert(1, "spawn").join());
+        assertEquals(1, insert(2, "market").get(5, TimeUnit.SECONDS));
+        assertEquals(1, count());
+    }
+
+    @Test
+    void writesAfterCloseFailStraightAway() {
+        queue = new SQLiteWriteQueue("test", () -> DriverManager.getConnection(url), statements::prepare, LOGGER);
+        assertEquals(1, insert(1, "spawn").join());
+
+        queue.close();
+
+        assertThrows(CompletionException.class, () -> insert(2, "market").join());
+    }
+}
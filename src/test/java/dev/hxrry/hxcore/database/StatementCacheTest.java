@@ -0,0 +1,121 @@
+package dev.hxrry.hxcore.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementCacheTest {
+
+    @TempDir
+    File folder;
+
+    private String url;
+    private Connection conn;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        url = "jdbc:sqlite:" + new File(folder, "statements.db").getAbsolutePath();
+        conn = DriverManager.getConnection(url);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    private static PreparedStatement lease(StatementCache cache, Connection conn, String sql) throws SQLException {
+        try (StatementCache.Lease lease = cache.prepare(conn, sql)) {
+            return lease.statement();
+        }
+    }
+
+    @Test
+    void theSameSqlReusesItsStatement() throws SQLException {
+        StatementCache cache = new StatementCache(4);
+
+        PreparedStatement first = lease(cache, conn, "SELECT ?");
+        PreparedStatement second = lease(cache, conn, "SELECT ?");
+
+        assertSame(first, second);
+        assertFalse(second.isClosed());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void theLeastRecentlyUsedStatementIsClosedWhenFull() throws SQLException {
+        StatementCache cache = new StatementCache(2);
+
+        PreparedStatement a = lease(cache, conn, "SELECT 1");
+        PreparedStatement b = lease(cache, conn, "SELECT 2");
+        lease(cache, conn, "SELECT 1"); // b is now the oldest
+        lease(cache, conn, "SELECT 3");
+
+        assertEquals(2, cache.size());
+        assertTrue(b.isClosed());
+        assertSame(a, lease(cache, conn, "SELECT 1"));
+        assertNotSame(b, lease(cache, conn, "SELECT 2"));
+    }
+
+    @Test
+    void closingALeaseClearsItsParameters() throws SQLException {
+        StatementCache cache = new StatementCache(4);
+
+        try (StatementCache.Lease lease = cache.prepare(conn, "SELECT ?")) {
+            lease.statement().setInt(1, 42);
+        }
+
+        // unbound parameters read as null in sqlite
+        try (StatementCache.Lease lease = cache.prepare(conn, "SELECT ?");
+             var rs = lease.statement().executeQuery()) {
+            assertTrue(rs.next());
+            assertNull(rs.getObject(1));
+        }
+    }
+
+    @Test
+    void aZeroSizeCacheClosesEveryStatement() throws SQLException {
+        StatementCache cache = new StatementCache(0);
+
+        PreparedStatement statement = lease(cache, conn, "SELECT 1");
+
+        assertTrue(statement.isClosed());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void statementsOfAClosedConnectionAreDropped() throws SQLException {
+        StatementCache cache = new StatementCache(4);
+        lease(cache, conn, "SELECT 1");
+
+        Connection retired = DriverManager.getConnection(url);
+        lease(cache, retired, "SELECT 2");
+        retired.close();
+        assertEquals(2, cache.size());
+
+        // the next connection the cache hasn't seen sweeps the closed one
+        try (Connection fresh = DriverManager.getConnection(url)) {
+            lease(cache, fresh, "SELECT 3");
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    void clearClosesEverything() throws SQLException {
+        StatementCache cache = new StatementCache(4);
+        PreparedStatement statement = lease(cache, conn, "SELECT 1");
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertTrue(statement.isClosed());
+    }
+}
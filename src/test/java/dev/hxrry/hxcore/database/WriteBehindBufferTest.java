@@ -0,0 +1,100 @@
+package dev.hxrry.hxcore.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindBufferTest {
+
+    private static final Logger LOGGER = Logger.getLogger("WriteBehindBufferTest");
+    private static final String HOMES = "CREATE TABLE homes (id TEXT PRIMARY KEY, name TEXT, world TEXT)";
+
+    @TempDir
+    File folder;
+
+    private SQLiteDatabase database;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = new SQLiteDatabase(folder, "buffer", LOGGER);
+        database.connect();
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.disconnect();
+    }
+
+    private QueryResult home(String id) {
+        return database.queryAsync("SELECT name, world FROM homes WHERE id = ?", id).join();
+    }
+
+    @Test
+    void writesToOneRowAreMergedColumnByColumn() {
+        database.updateAsync(HOMES).join();
+        database.updateAsync("INSERT INTO homes (id, name, world) VALUES ('spawn', 'old', 'w0')").join();
+        // an hour apart, only the explicit flush writes
+        WriteBehindBuffer buffer = database.createWriteBehind(1000, Duration.ofHours(1));
+
+        buffer.upsert("homes", "id", "spawn", "name", "a");
+        buffer.upsert("homes", "id", "spawn", "name", "b");
+        buffer.upsert("homes", "id", "market", "name", "shop", "world", "w1");
+        assertEquals(2, buffer.pendingCount());
+
+        buffer.flush().join();
+
+        assertEquals(0, buffer.pendingCount());
+        // latest name wins, the column nobody queued is left alone
+        assertEquals("b", home("spawn").getString(0, "name"));
+        assertEquals("w0", home("spawn").getString(0, "world"));
+        assertEquals("shop", home("market").getString(0, "name"));
+        assertEquals("w1", home("market").getString(0, "world"));
+    }
+
+    @Test
+    void aFailedFlushRequeuesUnderNewerWrites() {
+        WriteBehindBuffer buffer = database.createWriteBehind(1000, Duration.ofHours(1));
+        buffer.upsert("homes", "id", "spawn", "name", "a", "world", "w0");
+
+        // no table yet, the flush fails and its row goes back
+        assertThrows(CompletionException.class, () -> buffer.flush().join());
+        assertEquals(1, buffer.pendingCount());
+
+        buffer.upsert("homes", "id", "spawn", "name", "b");
+        assertEquals(1, buffer.pendingCount());
+
+        database.updateAsync(HOMES).join();
+        buffer.flush().join();
+
+        assertEquals(0, buffer.pendingCount());
+        assertEquals("b", home("spawn").getString(0, "name"));
+        assertEquals("w0", home("spawn").getString(0, "world"));
+    }
+
+    @Test
+    void aFullBufferStopsFlushingAfterAFailure() {
+        WriteBehindBuffer buffer = database.createWriteBehind(1, Duration.ofHours(1));
+
+        // full straight away, so this kicks off a flush that fails on the missing table
+        buffer.upsert("homes", "id", "spawn", "name", "a");
+        assertThrows(CompletionException.class, () -> buffer.flush().join());
+
+        buffer.upsert("homes", "id", "market", "name", "shop");
+        assertEquals(2, buffer.pendingCount());
+
+        database.updateAsync(HOMES).join();
+        buffer.flush().join();
+
+        assertEquals(0, buffer.pendingCount());
+        assertEquals("a", home("spawn").getString(0, "name"));
+        assertEquals("shop", home("market").getString(0, "name"));
+    }
+}